@@ -0,0 +1,154 @@
+package engine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers credentials which already passed BCrypt, so repeated HTTP Basic
+ * requests only pay for an HMAC instead of a database lookup and a BCrypt verify.
+ * Only a keyed digest of the password is kept; the key never leaves the process.
+ */
+@Component
+class VerifiedCredentialCache {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final Cache<String, VerifiedCredential> cache;
+    private final Mac macPrototype;
+
+    @Autowired
+    VerifiedCredentialCache(MeterRegistry meterRegistry,
+                            @Value("${engine.security.credential-cache.max-size:10000}") long maxSize,
+                            @Value("${engine.security.credential-cache.ttl-seconds:300}") long ttlSeconds)
+                                throws GeneralSecurityException {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.macPrototype = Mac.getInstance(HMAC_ALGORITHM);
+        this.macPrototype.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "credentials");
+    }
+
+    public UserDetails lookup(String username, String password) {
+        VerifiedCredential credential = cache.getIfPresent(username);
+        if (credential != null
+                && MessageDigest.isEqual(credential.digest, digest(username, password))) {
+            return credential.user;
+        }
+        return null;
+    }
+
+    public void store(String username, String password, UserDetails user) {
+        cache.put(username, new VerifiedCredential(digest(username, password), user));
+    }
+
+    public void invalidate(String username) {
+        if (username != null) cache.invalidate(username);
+    }
+
+    private byte[] digest(String username, String password) {
+        Mac mac;
+        try {
+            mac = (Mac) macPrototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class VerifiedCredential {
+        private final byte[] digest;
+        private final UserDetails user;
+
+        VerifiedCredential(byte[] digest, UserDetails user) {
+            this.digest = digest;
+            this.user = user;
+        }
+    }
+}
+
+class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    private final AuthenticationProvider delegate;
+    private final VerifiedCredentialCache credentialCache;
+
+    CachingAuthenticationProvider(AuthenticationProvider delegate,
+                                  VerifiedCredentialCache credentialCache) {
+        this.delegate = delegate;
+        this.credentialCache = credentialCache;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication)
+                                        throws AuthenticationException {
+        String username = authentication.getName();
+        Object credentials = authentication.getCredentials();
+        if (username == null || credentials == null) {
+            return delegate.authenticate(authentication);
+        }
+        String password = credentials.toString();
+
+        UserDetails cachedUser = credentialCache.lookup(username, password);
+        if (cachedUser != null) {
+            UsernamePasswordAuthenticationToken result =
+                    new UsernamePasswordAuthenticationToken(cachedUser,
+                                                            password,
+                                                            cachedUser.getAuthorities());
+            result.setDetails(authentication.getDetails());
+            return result;
+        }
+
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.getPrincipal() instanceof UserDetails) {
+            credentialCache.store(username, password, (UserDetails) result.getPrincipal());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+}
+
+class UserCredentialListener {
+
+    private final VerifiedCredentialCache credentialCache;
+
+    @Autowired
+    UserCredentialListener(VerifiedCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void evictCredentials(User user) {
+        credentialCache.invalidate(user.getUsername());
+    }
+}
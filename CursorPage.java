@@ -0,0 +1,65 @@
+package engine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing. {@code next} is an opaque token
+ * which continues the listing after the last element, or null on the last page.
+ */
+class CursorPage<T> {
+    private final List<T> content;
+    private final String next;
+
+    CursorPage(List<T> content, String next) {
+        this.content = content;
+        this.next = next;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public int getNumberOfElements() {
+        return content.size();
+    }
+
+    public boolean isLast() {
+        return next == null;
+    }
+}
+
+class CursorCodec {
+
+    private static final String INVALID_CURSOR = "The page cursor is invalid!";
+    private static final String SEPARATOR = "\n";
+
+    static String encode(String... parts) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.join(SEPARATOR, parts).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String[] decode(String cursor, int expectedParts) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(SEPARATOR, expectedParts);
+            if (parts.length != expectedParts) throw new InvalidPageRequestException(INVALID_CURSOR);
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPageRequestException(INVALID_CURSOR);
+        }
+    }
+
+    static long decodeLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new InvalidPageRequestException(INVALID_CURSOR);
+        }
+    }
+}
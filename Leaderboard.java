@@ -0,0 +1,364 @@
+package engine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.PostConstruct;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+class LeaderboardEntry {
+    private final long rank;
+    private final long userId;
+    private final long completions;
+
+    LeaderboardEntry(long rank, long userId, long completions) {
+        this.rank = rank;
+        this.userId = userId;
+        this.completions = completions;
+    }
+
+    public long getRank() {
+        return rank;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getCompletions() {
+        return completions;
+    }
+}
+
+class LeaderboardView {
+    private final List<LeaderboardEntry> top;
+    private final LeaderboardEntry you;
+
+    LeaderboardView(List<LeaderboardEntry> top, LeaderboardEntry you) {
+        this.top = top;
+        this.you = you;
+    }
+
+    public List<LeaderboardEntry> getTop() {
+        return top;
+    }
+
+    public LeaderboardEntry getYou() {
+        return you;
+    }
+}
+
+class FirstSolver {
+    private final long rank;
+    private final long userId;
+    private final LocalDateTime completedAt;
+
+    FirstSolver(long rank, long userId, LocalDateTime completedAt) {
+        this.rank = rank;
+        this.userId = userId;
+        this.completedAt = completedAt;
+    }
+
+    public long getRank() {
+        return rank;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public String getCompletedAt() {
+        return completedAt.toString();
+    }
+}
+
+/**
+ * Users ranked by completions, i.e. their rows in solved_quiz: every correct
+ * answer adds one. Standings are kept in a tree ordered by
+ * completions for the top of the board, and a Fenwick tree counts users per
+ * completion total, so a user's rank (one more than the number of users with
+ * more completions) takes O(log n). Built from solved_quiz at startup and
+ * updated on every correct answer and whenever the records of a deleted quiz
+ * are purged.
+ */
+@Component
+class Leaderboard {
+
+    private static final Logger log = LoggerFactory.getLogger(Leaderboard.class);
+    private static final Comparator<Standing> BEST_FIRST =
+            Comparator.comparingLong((Standing standing) -> standing.completions).reversed()
+                    .thenComparingLong(standing -> standing.userId);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Standing> standings = new HashMap<>();
+    private final TreeSet<Standing> ranking = new TreeSet<>(BEST_FIRST);
+    private final UsersByCompletions usersByCompletions = new UsersByCompletions();
+
+    @Autowired
+    private SolvedQuizRepository solvedQuizRepository;
+
+    @PostConstruct
+    void build() {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            for (Object[] row : solvedQuizRepository.countCompletionsByUser()) {
+                put(new Standing((Long) row[0], (Long) row[1]));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Ranked {} users in {} ms", standings.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public void solved(long userId) {
+        lock.writeLock().lock();
+        try {
+            Standing previous = standings.get(userId);
+            if (previous != null) {
+                ranking.remove(previous);
+                usersByCompletions.add(previous.completions, -1);
+            }
+            put(new Standing(userId, previous != null ? previous.completions + 1 : 1));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes back completions whose records were deleted along with their quiz.
+     */
+    public void unsolved(long userId, long completions) {
+        lock.writeLock().lock();
+        try {
+            Standing previous = standings.remove(userId);
+            if (previous == null) return;
+            ranking.remove(previous);
+            usersByCompletions.add(previous.completions, -1);
+            long remaining = previous.completions - completions;
+            if (remaining > 0) put(new Standing(userId, remaining));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<LeaderboardEntry> top(int k) {
+        lock.readLock().lock();
+        try {
+            List<LeaderboardEntry> top = new ArrayList<>(Math.min(k, ranking.size()));
+            long rank = 0;
+            long previousCompletions = -1;
+            for (Standing standing : ranking) {
+                if (top.size() == k) break;
+                if (standing.completions != previousCompletions) rank = top.size() + 1;
+                previousCompletions = standing.completions;
+                top.add(new LeaderboardEntry(rank, standing.userId, standing.completions));
+            }
+            return top;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The user's place; users with equal completions share a rank, and users
+     * without any rank after everyone who has some.
+     */
+    public LeaderboardEntry entry(long userId) {
+        lock.readLock().lock();
+        try {
+            Standing standing = standings.get(userId);
+            long completions = standing != null ? standing.completions : 0;
+            return new LeaderboardEntry(usersByCompletions.countAbove(completions) + 1, userId, completions);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(Standing standing) {
+        standings.put(standing.userId, standing);
+        ranking.add(standing);
+        usersByCompletions.add(standing.completions, 1);
+    }
+
+    private static final class Standing {
+        final long userId;
+        final long completions;
+
+        Standing(long userId, long completions) {
+            this.userId = userId;
+            this.completions = completions;
+        }
+    }
+
+    /**
+     * Fenwick tree over completion totals (1-based), grown by doubling as totals climb.
+     */
+    private static final class UsersByCompletions {
+        private long[] tree = new long[1025];
+        private long users;
+
+        void add(long completions, long delta) {
+            if (completions <= 0) return;
+            while (completions >= tree.length) grow();
+            for (int i = (int) completions; i < tree.length; i += i & -i) tree[i] += delta;
+            users += delta;
+        }
+
+        long countAbove(long completions) {
+            if (completions <= 0) return users;
+            if (completions >= tree.length) return 0;
+            long atMost = 0;
+            for (int i = (int) completions; i > 0; i -= i & -i) atMost += tree[i];
+            return users - atMost;
+        }
+
+        /**
+         * Node 2n of the doubled tree covers (0, 2n], i.e. every user so far;
+         * the new nodes below it cover ranges past the old maximum, which are empty.
+         */
+        private void grow() {
+            int size = tree.length - 1;
+            tree = Arrays.copyOf(tree, 2 * size + 1);
+            tree[2 * size] = users;
+        }
+    }
+}
+
+/**
+ * The first users to solve each quiz, loaded on first request by reading the
+ * (quiz_id, completed_at) index in windows: the first as long as the list,
+ * each next one twice as long, until enough distinct users are found or the
+ * rows run out. A complete list never changes again; a short one is appended
+ * to by {@link SolvedQuizWriter} as new users' records are stored.
+ */
+@Component
+class FirstSolvers {
+
+    private static final String FIRST_SOLVERS =
+            "select solved_by, completed_at from solved_quiz where quiz_id = ? " +
+            "order by quiz_id, completed_at, solved_quiz_id limit ? offset ?";
+
+    private final Cache<Long, List<FirstSolver>> cache;
+    private final JdbcTemplate jdbcTemplate;
+    private final int size;
+
+    @Autowired
+    FirstSolvers(JdbcTemplate jdbcTemplate,
+                 MeterRegistry meterRegistry,
+                 @Value("${engine.leaderboard.first-solvers:10}") int size,
+                 @Value("${engine.leaderboard.first-solvers-cache.max-size:10000}") long maxSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.size = size;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "first-solvers");
+    }
+
+    public List<FirstSolver> get(long quizId) {
+        List<FirstSolver> solvers = cache.get(quizId, this::load);
+        synchronized (solvers) {
+            return new ArrayList<>(solvers);
+        }
+    }
+
+    /**
+     * Called once the record is stored. Waits for a load of the same quiz that
+     * is in progress, which may or may not have seen the record.
+     */
+    public void solved(long quizId, long userId, LocalDateTime completedAt) {
+        cache.asMap().computeIfPresent(quizId, (id, solvers) -> {
+            synchronized (solvers) {
+                if (solvers.size() >= size) return solvers;
+                for (FirstSolver solver : solvers) {
+                    if (solver.getUserId() == userId) return solvers;
+                }
+                solvers.add(new FirstSolver(solvers.size() + 1, userId, completedAt));
+            }
+            return solvers;
+        });
+    }
+
+    public void remove(long quizId) {
+        cache.invalidate(quizId);
+    }
+
+    private List<FirstSolver> load(long quizId) {
+        List<FirstSolver> solvers = new ArrayList<>(size);
+        Set<Long> userIds = new HashSet<>();
+        long offset = 0;
+        for (int window = size; solvers.size() < size; offset += window, window *= 2) {
+            List<Object[]> rows = jdbcTemplate.query(FIRST_SOLVERS,
+                    (resultSet, row) -> new Object[]{resultSet.getLong(1), resultSet.getTimestamp(2)},
+                    quizId, window, offset);
+            for (Object[] row : rows) {
+                if (solvers.size() == size) break;
+                long userId = (Long) row[0];
+                if (!userIds.add(userId)) continue;
+                Timestamp completedAt = (Timestamp) row[1];
+                solvers.add(new FirstSolver(solvers.size() + 1, userId,
+                        completedAt != null ? completedAt.toLocalDateTime() : LocalDateTime.MIN));
+            }
+            if (rows.size() < window) break;
+        }
+        return solvers;
+    }
+}
+
+@RestController
+class LeaderboardController {
+
+    private final String INVALID_TOP_SIZE = "The leaderboard size must be between 1 and %d!";
+
+    @Autowired
+    private Leaderboard leaderboard;
+
+    @Autowired
+    private FirstSolvers firstSolvers;
+
+    @Autowired
+    private QuizAccessService quizAccessService;
+
+    @Value("${engine.leaderboard.max-size:100}")
+    private int maxSize;
+
+    @GetMapping("/api/leaderboard")
+    public LeaderboardView getLeaderboard(@RequestParam(defaultValue = "10") Integer k) {
+        if (k < 1 || k > maxSize) throw new InvalidPageRequestException(String.format(INVALID_TOP_SIZE, maxSize));
+        return new LeaderboardView(leaderboard.top(k), leaderboard.entry(QuizUserPrincipal.currentId()));
+    }
+
+    @GetMapping("/api/quizzes/{id}/leaderboard")
+    public List<FirstSolver> getFirstSolvers(@PathVariable("id") long id) {
+        quizAccessService.getReadableQuiz(id);
+        return firstSolvers.get(id);
+    }
+}
@@ -1,44 +1,73 @@
 package engine;
 
-import com.fasterxml.jackson.annotation.JsonIdentityInfo;
-import com.fasterxml.jackson.annotation.JsonIdentityReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.ObjectIdGenerators;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.fge.jsonpatch.JsonPatch;
-import com.github.fge.jsonpatch.JsonPatchException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Repository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import org.hibernate.annotations.DynamicUpdate;
 
 import javax.persistence.*;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Entity
+@DynamicUpdate
+@Table(indexes = {@Index(name = "idx_quiz_title", columnList = "title, QuizID"),
+                  @Index(name = "idx_quiz_owner", columnList = "user_id, QuizID")})
 public class Quiz {
+    static final String ID_SEQUENCE = "quiz_sequence";
+    static final int ID_ALLOCATION_SIZE = 50;
+    static final long ANY_VERSION = -1;
+    static final int OPTION_LIST_LENGTH = 4000;
+    private static final QuizOptionsConverter OPTIONS_CONVERTER = new QuizOptionsConverter();
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     @Column(name = "QuizID")
     private long id;
 
@@ -53,24 +82,32 @@ public class Quiz {
 
     @NotNull (message = "There must be options provided!")
     @Size(min = 2, max = 4)
+    @Column(name = "option_list", length = OPTION_LIST_LENGTH)
+    @Convert(converter = QuizOptionsConverter.class)
     private String[] options;
 
     @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
-    @Size(max = 4)
-    private HashSet<Integer> answer;
+    @JsonDeserialize(using = AnswerMaskDeserializer.class)
+    @Column(name = "answer_mask", nullable = false)
+    private int answer;
 
-    @ManyToOne
-    @JoinColumn(name = "user_id")
-    @JsonIdentityInfo(generator= ObjectIdGenerators.PropertyGenerator.class, property="id")
-    @JsonIdentityReference(alwaysAsId=true)
-    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
-    private User user;
+    @Version
+    @Column(columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+    @JsonIgnore
+    private long version;
+
+    @JsonIgnore
+    private LocalDateTime lastModified;
+
+    @Column(name = "user_id")
+    @JsonIgnore
+    private long ownerId;
 
     public long getId() {
         return id;
     }
 
-    public HashSet<Integer> getAnswer() {
+    public int getAnswer() {
         return answer;
     }
     public String getTitle() {
@@ -83,13 +120,21 @@ public class Quiz {
         return this.options;
     }
 
+    /**
+     * The options as stored in option_list, so that options too long for the
+     * column fail validation instead of the insert.
+     */
+    @Size(max = OPTION_LIST_LENGTH, message = "The options are too long to be stored!")
+    String getOptionList() {
+        return OPTIONS_CONVERTER.convertToDatabaseColumn(options);
+    }
+
     public void setId(long id) {
         this.id = id;
     }
 
-    public void setAnswer(HashSet<Integer> answer) {
-        if (answer != null) this.answer = answer;
-        else this.answer = new HashSet<>();
+    public void setAnswer(int answer) {
+        this.answer = answer;
     }
 
     public void setOptions(String[] options) {
@@ -104,82 +149,198 @@ public class Quiz {
         this.title = title;
     }
 
-    public User getUser() {
-        return user;
+    public long getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(long ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public LocalDateTime getLastModified() {
+        return lastModified;
     }
 
-    public void setUser(User user) {
-        this.user = user;
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        this.lastModified = LocalDateTime.now();
     }
 
 }
 
 class Answer {
-    @Size(max = 4)
-    private HashSet<Integer> answer;
+    @JsonDeserialize(using = AnswerMaskDeserializer.class)
+    private int answer;
 
-    public void setAnswer(HashSet<Integer> answer) {
-        if (answer != null) this.answer = answer;
-        else this.answer = new HashSet<>();
+    public void setAnswer(int answer) {
+        this.answer = answer;
     }
 
-    public HashSet<Integer> getAnswer() {
+    public int getAnswer() {
         return answer;
     }
 }
 
+/**
+ * Reads a JSON array of option indices, e.g. {@code [0, 2]}, straight into
+ * an {@link AnswerMask} bitmask without building a collection.
+ */
+class AnswerMaskDeserializer extends StdDeserializer<Integer> {
+
+    AnswerMaskDeserializer() {
+        super(Integer.class);
+    }
+
+    @Override
+    public Integer deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (!parser.isExpectedStartArrayToken()) {
+            return (Integer) context.handleUnexpectedToken(Integer.class, parser);
+        }
+        int mask = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_INT) {
+                return (Integer) context.handleUnexpectedToken(Integer.class, parser);
+            }
+            int option = parser.getIntValue();
+            if (option < 0 || option >= AnswerMask.MAX_OPTIONS) {
+                return (Integer) context.handleWeirdNumberValue(Integer.class, option,
+                        "answer options must be between 0 and %d", AnswerMask.MAX_OPTIONS - 1);
+            }
+            mask |= 1 << option;
+        }
+        return mask;
+    }
+
+    @Override
+    public Integer getNullValue(DeserializationContext context) {
+        return 0;
+    }
+}
+
 @RestController
 @RequestMapping(value = "/api/quizzes")
 class QuizController {
 
     private QuizRepository quizRepository;
-    private final String QUIZ_NOT_FOUND = "There is no such quiz!";
-    private final String UNAUTHORIZED_ACCESS = "You are not authorized to access this quiz!";
-    private final String NO_USER = "There is no authenticated user!";
     private final String SUCCESSFUL_DELETION = "You have successfully deleted the quiz!";
-    private UserRepository userRepository;
+    private final String INVALID_TOP_SIZE = "The number of top quizzes must be between 1 and %d!";
+    private final String STALE_VERSION = "The quiz has been changed since you last read it!";
+    /**
+     * Tagged reads may be stored by the client, but must be revalidated before reuse.
+     */
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
     private QuizService quizService;
     private SolvedQuizService solvedQuizService;
-    private SolvedQuizRepository solvedQuizRepository;
+    private SolvedQuizExportService solvedQuizExportService;
+    private QuizSolveService quizSolveService;
+    private QuizImportService quizImportService;
+    private QuizAccessService quizAccessService;
+    private QuizChanges quizChanges;
+    private QuizStatistics quizStatistics;
+    private QuizMetrics quizMetrics;
+
+    @Value("${engine.stats.top-size:100}")
+    private int maxTopSize;
 
     @Autowired
     QuizController(QuizRepository quizRepository,
-                   UserRepository userRepository,
                    QuizService quizService,
                    SolvedQuizService solvedQuizService,
-                   SolvedQuizRepository solvedQuizRepository) {
+                   SolvedQuizExportService solvedQuizExportService,
+                   QuizSolveService quizSolveService,
+                   QuizImportService quizImportService,
+                   QuizAccessService quizAccessService,
+                   QuizChanges quizChanges,
+                   QuizStatistics quizStatistics,
+                   QuizMetrics quizMetrics) {
         this.quizRepository = quizRepository;
-        this.userRepository = userRepository;
         this.quizService = quizService;
         this.solvedQuizService = solvedQuizService;
-        this.solvedQuizRepository = solvedQuizRepository;
-    }
-
-    @Bean
-    public ObjectMapper getObjectMapper() {
-        return new ObjectMapper();
+        this.solvedQuizExportService = solvedQuizExportService;
+        this.quizSolveService = quizSolveService;
+        this.quizImportService = quizImportService;
+        this.quizAccessService = quizAccessService;
+        this.quizChanges = quizChanges;
+        this.quizStatistics = quizStatistics;
+        this.quizMetrics = quizMetrics;
     }
 
     /*@PersistenceContext
     private EntityManager em;*/
 
     @GetMapping("/{id}")
-    public Quiz getQuiz(@PathVariable("id") long id) throws RuntimeException {
-        ResponseEntity<String> response = checkQuizAccessibility(id, false);
-        switch(response.getStatusCode()) {
-            case OK:
-                return quizRepository.getOne(id);
-            case NOT_FOUND:
-                throw new QuizNotFoundException(QUIZ_NOT_FOUND);
-        }
-        return null;
+    public ResponseEntity<QuizSnapshot> getQuiz(@PathVariable("id") long id,
+                                                WebRequest webRequest) throws RuntimeException {
+        QuizSnapshot quiz = quizAccessService.getReadableQuiz(id);
+        if (webRequest.checkNotModified(eTag(quiz.getVersion()), quiz.getLastModified())) return null;
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(quiz);
+    }
+
+    @GetMapping("/{id}/stats")
+    public QuizStatsView getQuizStats(@PathVariable("id") long id) {
+        quizAccessService.getReadableQuiz(id);
+        return quizStatistics.getQuizStats(id);
+    }
+
+    @GetMapping("/stats/top")
+    public List<QuizStatsView> getTopQuizzes(@RequestParam(defaultValue = "10") Integer k) {
+        if (k < 1 || k > maxTopSize) throw new InvalidPageRequestException(String.format(INVALID_TOP_SIZE, maxTopSize));
+        return quizStatistics.getTop(k);
     }
 
     @GetMapping
-    public Page<Quiz> getAllQuizzes(@RequestParam(defaultValue = "0") Integer page,
-                                    @RequestParam(defaultValue = "10") Integer pageSize,
-                                    @RequestParam(defaultValue = "id") String sortByField) {
-        return this.getQuizzes(page, pageSize, sortByField);
+    public ResponseEntity<Slice<Quiz>> getAllQuizzes(@RequestParam(defaultValue = "0") Integer page,
+                                                     @RequestParam(defaultValue = "10") Integer pageSize,
+                                                     @RequestParam(defaultValue = "id") String sortByField,
+                                                     @RequestParam(defaultValue = "true") boolean count,
+                                                     WebRequest webRequest) {
+        Slice<Quiz> quizzes = this.getQuizzes(page, pageSize, sortByField, count);
+        long total = quizzes instanceof Page ? ((Page<Quiz>) quizzes).getTotalElements() : -1;
+        String eTag = catalogueETag(quizzes.getContent(),
+                quizzes.getNumber(), quizzes.getSize(), sortByField, quizzes.hasNext(), total);
+        if (webRequest.checkNotModified(eTag)) return null;
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(quizzes);
+    }
+
+    @GetMapping("/search")
+    public Page<QuizSnapshot> searchQuizzes(@RequestParam String q,
+                                            @RequestParam(defaultValue = "0") Integer page,
+                                            @RequestParam(defaultValue = "10") Integer pageSize) {
+        return quizService.searchQuizzes(q, page, pageSize);
+    }
+
+    @GetMapping("/mine")
+    public ResponseEntity<Slice<Quiz>> getMyQuizzes(@RequestParam(defaultValue = "0") Integer page,
+                                                    @RequestParam(defaultValue = "10") Integer pageSize,
+                                                    @RequestParam(defaultValue = "true") boolean count,
+                                                    WebRequest webRequest) {
+        Slice<Quiz> quizzes = quizService.getOwnedQuizzes(getAuthenticatedUserId(), page, pageSize, count);
+        long total = quizzes instanceof Page ? ((Page<Quiz>) quizzes).getTotalElements() : -1;
+        String eTag = catalogueETag(quizzes.getContent(),
+                "mine", quizzes.getNumber(), quizzes.getSize(), quizzes.hasNext(), total);
+        if (webRequest.checkNotModified(eTag)) return null;
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(quizzes);
+    }
+
+    @GetMapping(params = "cursor")
+    public ResponseEntity<CursorPage<Quiz>> getQuizzesAfterCursor(@RequestParam(defaultValue = "") String cursor,
+                                                                  @RequestParam(defaultValue = "10") Integer pageSize,
+                                                                  @RequestParam(defaultValue = "id") String sortByField,
+                                                                  WebRequest webRequest) {
+        CursorPage<Quiz> quizzes = quizService.getQuizzesAfterCursor(cursor, pageSize, sortByField);
+        String eTag = catalogueETag(quizzes.getContent(), cursor, pageSize, sortByField, quizzes.getNext());
+        if (webRequest.checkNotModified(eTag)) return null;
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(quizzes);
     }
 
     @GetMapping(value = "/completed")
@@ -187,144 +348,134 @@ class QuizController {
                                                               @RequestParam(defaultValue = "10") Integer pageSize) {
         return solvedQuizService.getAllSolvedQuizzesWithPagination(page,
                                                                     pageSize,
-                                                                        getAuthenticatedUser().getId());
+                                                                        getAuthenticatedUserId());
+    }
+
+    @GetMapping(value = "/completed", params = "cursor")
+    public CursorPage<SolvedQuiz> getSolvedQuizzesAfterCursor(@RequestParam(defaultValue = "") String cursor,
+                                                              @RequestParam(defaultValue = "10") Integer pageSize) {
+        return solvedQuizService.getSolvedQuizzesAfterCursor(cursor,
+                                                             pageSize,
+                                                             getAuthenticatedUserId());
+    }
+
+    @GetMapping(value = "/completed/stats")
+    public UserStatsView getCompletionStats() {
+        return quizStatistics.getUserStats(getAuthenticatedUserId());
+    }
+
+    @GetMapping(value = "/completed/export")
+    public ResponseEntity<StreamingResponseBody> exportSolvedQuizzes(@RequestParam(defaultValue = "ndjson") String format) {
+        SolvedQuizExportFormat exportFormat = SolvedQuizExportFormat.of(format);
+        return ResponseEntity.ok()
+                .contentType(exportFormat.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"completed." + exportFormat.getExtension() + "\"")
+                .body(solvedQuizExportService.export(getAuthenticatedUserId(), exportFormat));
     }
 
     @PostMapping(consumes = "application/json")
     public Quiz addQuiz(@Valid @RequestBody Quiz newQuiz) {
-        if (newQuiz.getAnswer() == null) newQuiz.setAnswer(new HashSet<>());
-        newQuiz.setUser(getAuthenticatedUser());
+        newQuiz.setOwnerId(getAuthenticatedUserId());
         quizRepository.save(newQuiz);
+        quizChanges.created(newQuiz);
         return newQuiz;
     }
     @PostMapping(value = "/{id}/solve", consumes = "application/json")
     public QuizResult checkAnswer(@PathVariable("id") long id,
                                   @Valid @RequestBody Answer answer) throws RuntimeException {
-        ResponseEntity<String> response = checkQuizAccessibility(id, false);
-        switch(response.getStatusCode()) {
-            case OK:
-                Quiz solvedQuiz = quizRepository.getOne(id);
-                if (solvedQuiz.getAnswer().equals(answer.getAnswer())) {
-                    SolvedQuiz newSolvedQuiz = new SolvedQuiz();
-                    newSolvedQuiz.setUserId(getAuthenticatedUser().getId());
-                    newSolvedQuiz.setQuizId(id);
-                    newSolvedQuiz.setCompletedAt(LocalDateTime.now());
-                    solvedQuizRepository.save(newSolvedQuiz);
-                    return new QuizResult(true);
-                }
-                else return new QuizResult(false);
-            case NOT_FOUND:
-                throw new QuizNotFoundException(QUIZ_NOT_FOUND);
-        }
-        return null;
+        return quizSolveService.solve(id, answer.getAnswer(), getAuthenticatedUserId());
+    }
+
+    @PostMapping(value = "/solve", consumes = "application/json")
+    public List<BulkQuizResult> checkAnswers(InputStream body) throws IOException {
+        return quizSolveService.solveAll(quizSolveService.readAnswers(body), getAuthenticatedUserId());
+    }
+
+    @PostMapping(value = "/import", consumes = {"application/json", "application/x-ndjson"})
+    public List<QuizImportResult> importQuizzes(InputStream body) throws IOException {
+        return quizImportService.importQuizzes(body, getAuthenticatedUserId());
     }
 
     @DeleteMapping(value = "/{id}")
     public ResponseEntity<String> deleteQuiz(@PathVariable("id") long id) throws RuntimeException {
-        ResponseEntity<String> response = checkQuizAccessibility(id, true);
-        switch(response.getStatusCode()) {
-            case OK:
-                quizRepository.delete(quizRepository.getOne(id));
-                return new ResponseEntity<>(SUCCESSFUL_DELETION, HttpStatus.NO_CONTENT);
-            case NOT_FOUND:
-                throw new QuizNotFoundException(QUIZ_NOT_FOUND);
-            case FORBIDDEN:
-                throw new AccessForbiddenException(UNAUTHORIZED_ACCESS);
-        }
-        return null;
+        quizService.deleteQuiz(id, getAuthenticatedUserId());
+        quizChanges.deleted(id);
+        return new ResponseEntity<>(SUCCESSFUL_DELETION, HttpStatus.NO_CONTENT);
     }
 
     @PutMapping(value = "/{id}", consumes = "application/json")
-    public ResponseEntity<Quiz> updateQuiz(@PathVariable("id") long id, @Valid @RequestBody Quiz newQuiz) {
-        switch(checkQuizAccessibility(id, true).getStatusCode()) {
-            case OK:
-                Quiz updatedQuiz = quizRepository.getOne(id);
-                updatedQuiz.setUser(getAuthenticatedUser());
-                updatedQuiz.setTitle(newQuiz.getTitle());
-                updatedQuiz.setText(newQuiz.getText());
-                updatedQuiz.setAnswer(newQuiz.getAnswer());
-                updatedQuiz.setOptions(newQuiz.getOptions());
-                quizRepository.save(updatedQuiz);
-                return new ResponseEntity<>(updatedQuiz, HttpStatus.OK);
-            case NOT_FOUND:
-                throw new QuizNotFoundException(QUIZ_NOT_FOUND);
-            case FORBIDDEN:
-                throw new AccessForbiddenException(UNAUTHORIZED_ACCESS);
-        }
-        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    public ResponseEntity<Quiz> updateQuiz(@PathVariable("id") long id,
+                                           @Valid @RequestBody Quiz newQuiz,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        long version = quizService.updateQuiz(id, getAuthenticatedUserId(), newQuiz, expectedVersion(ifMatch));
+        newQuiz.setId(id);
+        quizChanges.updated(newQuiz);
+        return ResponseEntity.ok().eTag(eTag(version)).body(newQuiz);
     }
 
     @PatchMapping(value = "/{id}", consumes = {"application/json","application/json-patch+json"})
     public ResponseEntity<Quiz> patchQuiz(@PathVariable("id") long id,
-                                          @RequestBody JsonPatch quizPatch)
-                                            throws JsonPatchException, JsonProcessingException {
-        switch(checkQuizAccessibility(id, true).getStatusCode()) {
-            case OK:
-                Quiz currentQuiz = quizRepository.getOne(id);
-                Quiz patchedQuiz = applyPatchToQuiz(quizPatch, currentQuiz, getObjectMapper());
-                patchedQuiz.setUser(getAuthenticatedUser());
-                quizRepository.save(patchedQuiz);
-                return new ResponseEntity<>(patchedQuiz, HttpStatus.OK);
-            case NOT_FOUND:
-                throw new QuizNotFoundException(QUIZ_NOT_FOUND);
-            case FORBIDDEN:
-                throw new AccessForbiddenException(UNAUTHORIZED_ACCESS);
+                                          @RequestBody List<QuizPatchOperation> quizPatch,
+                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Quiz patchedQuiz;
+        try {
+            patchedQuiz = quizService.patchQuiz(id, getAuthenticatedUserId(), quizPatch, expectedVersion(ifMatch));
+        } catch (ObjectOptimisticLockingFailureException e) {
+            throw new PreconditionFailedException(STALE_VERSION);
         }
-        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
-
+        quizChanges.updated(patchedQuiz);
+        return ResponseEntity.ok().eTag(eTag(patchedQuiz.getVersion())).body(patchedQuiz);
     }
 
 
-    private Quiz applyPatchToQuiz(JsonPatch patch,
-                                  Quiz targetQuiz,
-                                  ObjectMapper objectMapper)
-                                    throws JsonPatchException,
-                                            JsonProcessingException {
-
-        JsonNode patched = patch.apply(
-                        objectMapper.convertValue(
-                                targetQuiz, JsonNode.class));
-        return objectMapper.treeToValue(patched, Quiz.class);
-
+    /**
+     * Strong per-quiz entity tag, derived from the optimistic-lock version.
+     */
+    static String eTag(long version) {
+        return "\"" + version + "\"";
     }
 
-
-    public boolean checkUserAuthorities(long quizId) {
-        if (quizRepository.findById(quizId).isPresent()) {
-            return quizRepository
-                    .getOne(quizId)
-                    .getUser() ==
-                    getAuthenticatedUser();
-        } else return false;
+    /**
+     * Parses an If-Match header holding one strong tag produced by {@link #eTag(long)}.
+     * A missing header or {@code *} matches any version.
+     */
+    private long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) return Quiz.ANY_VERSION;
+        String tag = ifMatch.trim();
+        if (tag.length() < 3 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+            throw new PreconditionFailedException(STALE_VERSION);
+        }
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new PreconditionFailedException(STALE_VERSION);
+        }
     }
 
-    public User getAuthenticatedUser() {
-        Object principal = SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        String username;
-        if (principal instanceof UserDetails) {
-            username = ((UserDetails)principal).getUsername();
-            return this.userRepository.findByUsername(username);
-        } else {
-            //username = principal.toString();
-            throw new UsernameNotFoundException(NO_USER);
+    /**
+     * Weak tag for a catalogue page: a hash of the ids and versions on the page
+     * plus everything else that shapes the response, so any edit on the page
+     * changes the tag. A hash can collide, hence weak.
+     */
+    private static String catalogueETag(List<Quiz> quizzes, Object... parameters) {
+        long hash = Arrays.hashCode(parameters);
+        for (Quiz quiz : quizzes) {
+            hash = 31 * hash + quiz.getId();
+            hash = 31 * hash + quiz.getVersion();
         }
+        return "W/\"c" + Long.toHexString(hash) + "\"";
     }
 
-    public Page<Quiz> getQuizzes(Integer pageNo,
-                                 Integer pageSize,
-                                 String sortByField) {
-        return quizService.getAllQuizzesWithPagination(pageNo, pageSize, sortByField);
+    public long getAuthenticatedUserId() {
+        return quizMetrics.time(QuizMetrics.Stage.PRINCIPAL, () -> QuizUserPrincipal.currentId());
     }
 
-    public ResponseEntity<String> checkQuizAccessibility(long id,
-                                         boolean checkUserCredentials) {
-        if (quizRepository.findById(id).isPresent()) {
-            if (checkUserCredentials) {
-                if (checkUserAuthorities(id)) {
-                    return new ResponseEntity<>(HttpStatus.OK);
-                } else return new ResponseEntity<>(HttpStatus.FORBIDDEN);
-            } else return new ResponseEntity<>(HttpStatus.OK);
-        } return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    public Slice<Quiz> getQuizzes(Integer pageNo,
+                                  Integer pageSize,
+                                  String sortByField,
+                                  boolean withTotal) {
+        return quizService.getAllQuizzesWithPagination(pageNo, pageSize, sortByField, withTotal);
     }
 }
 
@@ -338,6 +489,11 @@ class QuizResult {
         else this.feedback = "Wrong answer! Please, try again.";
     }
 
+    protected QuizResult(boolean success, String feedback) {
+        this.success = success;
+        this.feedback = feedback;
+    }
+
     public boolean getSuccess() {
         return this.success;
     }
@@ -350,25 +506,350 @@ class QuizResult {
 @Repository
 interface QuizRepository extends JpaRepository<Quiz, Long> {
 
+    @Query("select q.version from Quiz q where q.id = :id")
+    Optional<Long> findVersionById(@Param("id") long id);
+
+    @Modifying
+    @Query("update Quiz q set q.title = :title, q.text = :text, q.options = :options, q.answer = :answer, " +
+            "q.version = q.version + 1, q.lastModified = :lastModified " +
+            "where q.id = :id and q.ownerId = :ownerId " +
+            "and (:version = " + Quiz.ANY_VERSION + "L or q.version = :version)")
+    int updateIfCurrent(@Param("id") long id,
+                        @Param("ownerId") long ownerId,
+                        @Param("version") long version,
+                        @Param("title") String title,
+                        @Param("text") String text,
+                        @Param("options") String[] options,
+                        @Param("answer") int answer,
+                        @Param("lastModified") LocalDateTime lastModified);
+
+    @Modifying
+    @Query("delete from Quiz q where q.id = :id and q.ownerId = :ownerId")
+    int deleteOwned(@Param("id") long id, @Param("ownerId") long ownerId);
+
+    Slice<Quiz> findAllBy(Pageable pageable);
+
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+    Stream<Quiz> streamAllBy();
+
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select q.id from Quiz q order by q.id")
+    Stream<Long> streamIds();
+
+    Page<Quiz> findAllByOwnerId(long ownerId, Pageable pageable);
+
+    Slice<Quiz> findByOwnerId(long ownerId, Pageable pageable);
+
+    List<Quiz> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+    List<Quiz> findAllByOrderByTitleAscIdAsc(Pageable pageable);
+
+    @Query("select q from Quiz q where q.title >= :title and (q.title > :title or q.id > :id) " +
+            "order by q.title, q.id")
+    List<Quiz> findByTitleAfter(@Param("title") String title,
+                                @Param("id") long id,
+                                Pageable pageable);
+
+}
+
+@Service
+class QuizAccessService {
+
+    private final String QUIZ_NOT_FOUND = "There is no such quiz!";
+    private final String UNAUTHORIZED_ACCESS = "You are not authorized to access this quiz!";
+    private final String STALE_VERSION = "The quiz has been changed since you last read it!";
+
+    @Autowired
+    QuizRepository quizRepository;
+
+    @Autowired
+    QuizCache quizCache;
+
+    @Autowired
+    QuizMetrics quizMetrics;
+
+    public QuizSnapshot getReadableQuiz(long quizId) {
+        return quizMetrics.time(QuizMetrics.Stage.ACCESS, () -> findReadableQuiz(quizId));
+    }
+
+    public Quiz getOwnedQuiz(long quizId, long userId) {
+        return quizMetrics.time(QuizMetrics.Stage.ACCESS, () -> {
+            checkOwner(findReadableQuiz(quizId), userId);
+            return this.quizRepository.findById(quizId)
+                    .orElseThrow(this::quizNotFound);
+        });
+    }
+
+    /**
+     * Ownership check against the cached snapshot, for callers that need
+     * no entity and so no extra query.
+     */
+    public QuizSnapshot getOwnedSnapshot(long quizId, long userId) {
+        return quizMetrics.time(QuizMetrics.Stage.ACCESS, () -> checkOwner(findReadableQuiz(quizId), userId));
+    }
+
+    private QuizSnapshot checkOwner(QuizSnapshot quiz, long userId) {
+        if (quiz.getOwnerId() != userId) {
+            quizMetrics.forbidden();
+            throw new AccessForbiddenException(UNAUTHORIZED_ACCESS);
+        }
+        return quiz;
+    }
+
+    /**
+     * Tells why a conditional write matched no row: the quiz is gone,
+     * belongs to someone else, or was changed since the caller read it.
+     */
+    public RuntimeException rejectedWrite(long quizId, long userId) {
+        quizCache.invalidate(quizId);
+        QuizSnapshot quiz = this.quizCache.get(quizId).orElse(null);
+        if (quiz == null) return quizNotFound();
+        if (quiz.getOwnerId() != userId) {
+            quizMetrics.forbidden();
+            return new AccessForbiddenException(UNAUTHORIZED_ACCESS);
+        }
+        return new PreconditionFailedException(STALE_VERSION);
+    }
+
+    private QuizSnapshot findReadableQuiz(long quizId) {
+        return this.quizCache.get(quizId).orElseThrow(this::quizNotFound);
+    }
+
+    private QuizNotFoundException quizNotFound() {
+        quizMetrics.notFound();
+        return new QuizNotFoundException(QUIZ_NOT_FOUND);
+    }
+}
+
+/**
+ * Keeps the in-memory views of the catalogue (the snapshot cache, the search
+ * index and the statistics) in step with writes. Call it after the write has committed.
+ */
+@Component
+class QuizChanges {
 
+    @Autowired
+    private QuizCache quizCache;
+
+    @Autowired
+    private QuizSearchIndex quizSearchIndex;
+
+    @Autowired
+    private QuizStatistics quizStatistics;
+
+    @Autowired
+    private QuizIdIndex quizIdIndex;
+
+    @Autowired
+    private FirstSolvers firstSolvers;
+
+    @Autowired
+    private SolvedQuizPurge solvedQuizPurge;
+
+    public void created(Quiz quiz) {
+        quizCache.invalidate(quiz.getId());
+        quizSearchIndex.index(quiz);
+        quizIdIndex.add(quiz.getId());
+    }
+
+    public void updated(Quiz quiz) {
+        quizCache.invalidate(quiz.getId());
+        quizSearchIndex.index(quiz);
+    }
+
+    public void deleted(long quizId) {
+        quizCache.invalidate(quizId);
+        quizSearchIndex.remove(quizId);
+        quizStatistics.remove(quizId);
+        quizIdIndex.remove(quizId);
+        firstSolvers.remove(quizId);
+        solvedQuizPurge.purge(quizId);
+    }
+}
+
+/**
+ * Fields the catalogue can be sorted by. Every one of them is backed by an index
+ * which ends with the quiz id, so deep pages and keyset seeks stay cheap.
+ */
+enum QuizSortField {
+    ID("id"),
+    TITLE("title");
+
+    private final String property;
+
+    QuizSortField(String property) {
+        this.property = property;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public Sort sort() {
+        return this == ID
+                ? Sort.by("id").ascending()
+                : Sort.by(property).ascending().and(Sort.by("id").ascending());
+    }
+
+    public static QuizSortField of(String property) {
+        for (QuizSortField field : values()) {
+            if (field.property.equals(property)) return field;
+        }
+        throw new InvalidPageRequestException(
+                String.format("Quizzes can't be sorted by '%s'!", property));
+    }
 }
 
 @Service
 class QuizService {
 
+    private final String INVALID_PAGE = "The page number must not be negative!";
+    private final String INVALID_PAGE_SIZE = "The page size must be between 1 and %d!";
+    private final String STALE_VERSION = "The quiz has been changed since you last read it!";
+    private final String EMPTY_QUERY = "The search query must contain at least one word of two or more letters or digits!";
+
     @Autowired
     QuizRepository quizRepository;
 
-    public Page<Quiz> getAllQuizzesWithPagination(Integer page,
+    @Autowired
+    QuizAccessService quizAccessService;
+
+    @Autowired
+    QuizSearchIndex quizSearchIndex;
+
+    @Autowired
+    QuizCache quizCache;
+
+    @Autowired
+    Validator validator;
+
+    @Value("${engine.quizzes.max-page-size:100}")
+    int maxPageSize;
+
+    @Value("${engine.search.max-results:10000}")
+    int maxSearchResults;
+
+    public Page<QuizSnapshot> searchQuizzes(String query, Integer page, Integer pageSize) {
+        if (page < 0) throw new InvalidPageRequestException(INVALID_PAGE);
+        int size = checkPageSize(pageSize);
+        if ((long) page * size + size > maxSearchResults) {
+            throw new InvalidPageRequestException(
+                    String.format("Only the first %d search results can be paged through!", maxSearchResults));
+        }
+        if (QuizSearchIndex.tokenize(query).isEmpty()) throw new InvalidPageRequestException(EMPTY_QUERY);
+
+        QuizSearchIndex.SearchResult result = quizSearchIndex.search(query, page * size, size);
+        Map<Long, QuizSnapshot> snapshots = quizCache.getAll(result.getIds());
+        List<QuizSnapshot> quizzes = new ArrayList<>(result.getIds().size());
+        for (long id : result.getIds()) {
+            QuizSnapshot quiz = snapshots.get(id);
+            if (quiz != null) quizzes.add(quiz);
+        }
+        return new PageImpl<>(quizzes, PageRequest.of(page, size), result.getTotal());
+    }
+
+    /**
+     * Overwrites an owned quiz in a single conditional statement, without
+     * reading it first, and returns its new version.
+     */
+    @Transactional
+    public long updateQuiz(long id, long ownerId, Quiz newQuiz, long expectedVersion) {
+        int updated = this.quizRepository.updateIfCurrent(id, ownerId, expectedVersion,
+                newQuiz.getTitle(), newQuiz.getText(), newQuiz.getOptions(), newQuiz.getAnswer(),
+                LocalDateTime.now());
+        if (updated == 0) throw quizAccessService.rejectedWrite(id, ownerId);
+        return this.quizRepository.findVersionById(id)
+                .orElseThrow(() -> quizAccessService.rejectedWrite(id, ownerId));
+    }
+
+    /**
+     * Deletes an owned quiz in a single conditional statement; its completion
+     * records are left to {@link SolvedQuizPurge}.
+     */
+    @Transactional
+    public void deleteQuiz(long id, long ownerId) {
+        if (this.quizRepository.deleteOwned(id, ownerId) == 0) throw quizAccessService.rejectedWrite(id, ownerId);
+    }
+
+    /**
+     * Applies the patch to the managed quiz and validates the result. Only the
+     * patched columns are written, guarded by the version read here.
+     */
+    @Transactional
+    public Quiz patchQuiz(long id, long ownerId, List<QuizPatchOperation> patch, long expectedVersion) {
+        Quiz quiz = quizAccessService.getOwnedQuiz(id, ownerId);
+        if (expectedVersion != Quiz.ANY_VERSION && expectedVersion != quiz.getVersion()) {
+            throw new PreconditionFailedException(STALE_VERSION);
+        }
+        QuizPatch.apply(patch, quiz);
+        Set<ConstraintViolation<Quiz>> violations = validator.validate(quiz);
+        if (!violations.isEmpty()) {
+            throw new InvalidQuizException(violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .collect(Collectors.joining("; ")));
+        }
+        return quiz;
+    }
+
+    public Slice<Quiz> getAllQuizzesWithPagination(Integer page,
+                                                   Integer pageSize,
+                                                   String sortByField,
+                                                   boolean withTotal) {
+        if (page < 0) throw new InvalidPageRequestException(INVALID_PAGE);
+        Pageable paging = PageRequest.of(page, checkPageSize(pageSize),
+                                    QuizSortField.of(sortByField).sort());
+
+        if (withTotal) return this.quizRepository.findAll(paging);
+        return this.quizRepository.findAllBy(paging);
+
+    }
+
+    /**
+     * The caller's own quizzes in id order, read through the (user_id, QuizID) index.
+     */
+    public Slice<Quiz> getOwnedQuizzes(long ownerId, Integer page, Integer pageSize, boolean withTotal) {
+        if (page < 0) throw new InvalidPageRequestException(INVALID_PAGE);
+        Pageable paging = PageRequest.of(page, checkPageSize(pageSize), QuizSortField.ID.sort());
+
+        if (withTotal) return this.quizRepository.findAllByOwnerId(ownerId, paging);
+        return this.quizRepository.findByOwnerId(ownerId, paging);
+    }
+
+    public CursorPage<Quiz> getQuizzesAfterCursor(String cursor,
                                                   Integer pageSize,
                                                   String sortByField) {
-        Pageable paging = PageRequest.of(page, pageSize,
-                                    Sort.by(sortByField).ascending());
-
-        Page<Quiz> pagedResult = this.quizRepository.findAll(paging);
+        QuizSortField sortField = QuizSortField.of(sortByField);
+        int size = checkPageSize(pageSize);
+        Pageable limit = PageRequest.of(0, size + 1);
+
+        List<Quiz> quizzes;
+        if (sortField == QuizSortField.ID) {
+            long afterId = cursor.isEmpty()
+                    ? Long.MIN_VALUE
+                    : CursorCodec.decodeLong(CursorCodec.decode(cursor, 1)[0]);
+            quizzes = this.quizRepository.findByIdGreaterThanOrderByIdAsc(afterId, limit);
+        } else if (cursor.isEmpty()) {
+            quizzes = this.quizRepository.findAllByOrderByTitleAscIdAsc(limit);
+        } else {
+            String[] position = CursorCodec.decode(cursor, 2);
+            quizzes = this.quizRepository.findByTitleAfter(position[1],
+                                                           CursorCodec.decodeLong(position[0]),
+                                                           limit);
+        }
 
-        return pagedResult;
+        if (quizzes.size() <= size) return new CursorPage<>(quizzes, null);
+        List<Quiz> page = quizzes.subList(0, size);
+        Quiz last = page.get(size - 1);
+        String next = sortField == QuizSortField.ID
+                ? CursorCodec.encode(String.valueOf(last.getId()))
+                : CursorCodec.encode(String.valueOf(last.getId()), last.getTitle());
+        return new CursorPage<>(page, next);
+    }
 
+    private int checkPageSize(Integer pageSize) {
+        if (pageSize < 1 || pageSize > maxPageSize) {
+            throw new InvalidPageRequestException(String.format(INVALID_PAGE_SIZE, maxPageSize));
+        }
+        return pageSize;
     }
 }
-
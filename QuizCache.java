@@ -0,0 +1,150 @@
+package engine;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable copy of a quiz, safe to share between request threads.
+ * Serializes exactly like {@link Quiz}: the answer and the owner stay hidden.
+ */
+class QuizSnapshot {
+    private final long id;
+    private final String title;
+    private final String text;
+    private final String[] options;
+    private final int answer;
+    private final long ownerId;
+    private final long version;
+    private final long lastModified;
+
+    private QuizSnapshot(Quiz quiz) {
+        this.id = quiz.getId();
+        this.title = quiz.getTitle();
+        this.text = quiz.getText();
+        this.options = quiz.getOptions() != null ? quiz.getOptions().clone() : new String[0];
+        this.answer = quiz.getAnswer();
+        this.ownerId = quiz.getOwnerId();
+        this.version = quiz.getVersion();
+        this.lastModified = quiz.getLastModified() != null
+                ? Timestamp.valueOf(quiz.getLastModified()).getTime()
+                : -1;
+    }
+
+    static QuizSnapshot of(Quiz quiz) {
+        return new QuizSnapshot(quiz);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String[] getOptions() {
+        return options.clone();
+    }
+
+    @JsonIgnore
+    public int getAnswer() {
+        return answer;
+    }
+
+    @JsonIgnore
+    public long getOwnerId() {
+        return ownerId;
+    }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Epoch millis of the last change, or -1 for quizzes written before it was tracked.
+     */
+    @JsonIgnore
+    public long getLastModified() {
+        return lastModified;
+    }
+}
+
+@Component
+class QuizCache {
+
+    private final Cache<Long, QuizSnapshot> cache;
+    private final QuizRepository quizRepository;
+    private final Timer loadTimer;
+
+    @Autowired
+    QuizCache(QuizRepository quizRepository,
+              MeterRegistry meterRegistry,
+              @Value("${engine.quiz-cache.max-size:100000}") long maxSize) {
+        this.quizRepository = quizRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "quizzes");
+        Gauge.builder("cache.hit.ratio", this.cache, c -> c.stats().hitRate())
+                .tag("cache", "quizzes")
+                .description("The ratio of cache lookups which returned a cached value")
+                .register(meterRegistry);
+        this.loadTimer = Timer.builder("quiz.cache.load")
+                .description("Time spent loading quizzes into the cache on a miss")
+                .register(meterRegistry);
+    }
+
+    public Optional<QuizSnapshot> get(long quizId) {
+        return Optional.ofNullable(cache.get(quizId, this::load));
+    }
+
+    /**
+     * Looks up several quizzes at once, loading all the missing ones in a
+     * single query. Quizzes that don't exist are left out of the map.
+     */
+    public Map<Long, QuizSnapshot> getAll(Collection<Long> quizIds) {
+        return cache.getAll(quizIds, this::loadAll);
+    }
+
+    public void invalidate(long quizId) {
+        cache.invalidate(quizId);
+    }
+
+    private Map<Long, QuizSnapshot> loadAll(Iterable<? extends Long> quizIds) {
+        return loadTimer.record(() -> {
+            Map<Long, QuizSnapshot> loaded = new HashMap<>();
+            List<Long> ids = new ArrayList<>();
+            quizIds.forEach(ids::add);
+            for (Quiz quiz : quizRepository.findAllById(ids)) loaded.put(quiz.getId(), QuizSnapshot.of(quiz));
+            return loaded;
+        });
+    }
+
+    private QuizSnapshot load(long quizId) {
+        return loadTimer.record(() -> quizRepository.findById(quizId)
+                .map(QuizSnapshot::of)
+                .orElse(null));
+    }
+}
@@ -0,0 +1,199 @@
+package engine;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Streams quizzes from a JSON array or newline-delimited JSON body, validates
+ * each one with the entity constraints and persists the valid ones in batches.
+ * An item that doesn't map onto a quiz is reported and skipped; malformed
+ * JSON ends the import, since there is no telling where the next item starts.
+ */
+@Service
+class QuizImportService {
+
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private QuizChanges quizChanges;
+
+    @Autowired
+    QuizImportService(ObjectMapper objectMapper,
+                      Validator validator,
+                      PlatformTransactionManager transactionManager,
+                      @Value("${engine.import.batch-size:500}") int batchSize) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    public List<QuizImportResult> importQuizzes(InputStream body, long userId) throws IOException {
+        List<QuizImportResult> results = new ArrayList<>();
+        List<Quiz> batch = new ArrayList<>(batchSize);
+        List<QuizImportResult> batchResults = new ArrayList<>(batchSize);
+
+        try (MappingIterator<Quiz> quizzes = objectMapper.readerFor(Quiz.class).readValues(body)) {
+            for (int index = 0; ; index++) {
+                Quiz quiz;
+                try {
+                    if (!quizzes.hasNextValue()) break;
+                    quiz = quizzes.nextValue();
+                } catch (JsonParseException e) {
+                    results.add(QuizImportResult.rejected(index, e.getOriginalMessage()));
+                    break;
+                } catch (JsonProcessingException e) {
+                    results.add(QuizImportResult.rejected(index, e.getOriginalMessage()));
+                    continue;
+                }
+
+                Set<ConstraintViolation<Quiz>> violations = validator.validate(quiz);
+                if (!violations.isEmpty()) {
+                    results.add(QuizImportResult.rejected(index, violations.stream()
+                            .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                            .collect(Collectors.joining("; "))));
+                    continue;
+                }
+
+                QuizImportResult result = QuizImportResult.accepted(index);
+                results.add(result);
+                batch.add(quiz);
+                batchResults.add(result);
+                if (batch.size() == batchSize) {
+                    persist(batch, batchResults, userId);
+                }
+            }
+        }
+        persist(batch, batchResults, userId);
+        return results;
+    }
+
+    private void persist(List<Quiz> batch, List<QuizImportResult> batchResults, long userId) {
+        if (batch.isEmpty()) return;
+        transactionTemplate.execute(status -> {
+            for (Quiz quiz : batch) {
+                quiz.setId(0);
+                quiz.setOwnerId(userId);
+                entityManager.persist(quiz);
+            }
+            entityManager.flush();
+            entityManager.clear();
+            return null;
+        });
+        for (int i = 0; i < batch.size(); i++) {
+            batchResults.get(i).setId(batch.get(i).getId());
+            quizChanges.created(batch.get(i));
+        }
+        batch.clear();
+        batchResults.clear();
+    }
+}
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+class QuizImportResult {
+    private final int index;
+    private final boolean imported;
+    private final String error;
+    private Long id;
+
+    private QuizImportResult(int index, boolean imported, String error) {
+        this.index = index;
+        this.imported = imported;
+        this.error = error;
+    }
+
+    static QuizImportResult accepted(int index) {
+        return new QuizImportResult(index, true, null);
+    }
+
+    static QuizImportResult rejected(int index, String error) {
+        return new QuizImportResult(index, false, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isImported() {
+        return imported;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setId(long id) {
+        this.id = id;
+    }
+}
+
+class BulkAnswer {
+    private long quizId;
+
+    @JsonDeserialize(using = AnswerMaskDeserializer.class)
+    private int answer;
+
+    public long getQuizId() {
+        return quizId;
+    }
+
+    public void setQuizId(long quizId) {
+        this.quizId = quizId;
+    }
+
+    public int getAnswer() {
+        return answer;
+    }
+
+    public void setAnswer(int answer) {
+        this.answer = answer;
+    }
+}
+
+class BulkQuizResult extends QuizResult {
+    private final long quizId;
+
+    BulkQuizResult(long quizId, boolean success) {
+        super(success);
+        this.quizId = quizId;
+    }
+
+    BulkQuizResult(long quizId, String feedback) {
+        super(false, feedback);
+        this.quizId = quizId;
+    }
+
+    public long getQuizId() {
+        return quizId;
+    }
+}
@@ -0,0 +1,247 @@
+package engine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.web.servlet.DefaultWebMvcTagsProvider;
+import org.springframework.boot.actuate.metrics.web.servlet.WebMvcTags;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Meters for the stages of handling a quiz request, answer outcomes and
+ * access failures. Access, principal and bcrypt stages run for reads and
+ * edits as well as solves, hence {@code quiz.request.stage} rather than a
+ * solve-only name. Stage timers publish percentiles and a histogram so that
+ * Prometheus can aggregate them across instances.
+ */
+@Component
+class QuizMetrics {
+
+    enum Stage {
+        ACCESS, PRINCIPAL, BCRYPT, GRADING, INSERT
+    }
+
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Counter correctAnswers;
+    private final Counter wrongAnswers;
+    private final Counter forbidden;
+    private final Counter notFound;
+    private final Map<String, Counter> throttled = new HashMap<>();
+
+    @Autowired
+    QuizMetrics(MeterRegistry meterRegistry) {
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("quiz.request.stage")
+                    .tag("stage", stage.name().toLowerCase())
+                    .description("Time spent in one stage of handling a quiz request")
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        this.correctAnswers = answerCounter(meterRegistry, "correct");
+        this.wrongAnswers = answerCounter(meterRegistry, "wrong");
+        this.forbidden = accessCounter(meterRegistry, "forbidden");
+        this.notFound = accessCounter(meterRegistry, "not_found");
+        for (String limit : new String[]{"user", "quiz"}) {
+            throttled.put(limit, Counter.builder("quiz.solve.throttled")
+                    .tag("limit", limit)
+                    .description("Solve attempts rejected by the rate limiter")
+                    .register(meterRegistry));
+        }
+    }
+
+    public <T> T time(Stage stage, Supplier<T> task) {
+        return stageTimers.get(stage).record(task);
+    }
+
+    public void time(Stage stage, Runnable task) {
+        stageTimers.get(stage).record(task);
+    }
+
+    public void answered(boolean correct) {
+        (correct ? correctAnswers : wrongAnswers).increment();
+    }
+
+    public void forbidden() {
+        forbidden.increment();
+    }
+
+    public void notFound() {
+        notFound.increment();
+    }
+
+    public void throttled(String limit) {
+        throttled.get(limit).increment();
+    }
+
+    private static Counter answerCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("quiz.answers")
+                .tag("result", result)
+                .description("Graded answers by result")
+                .register(meterRegistry);
+    }
+
+    private static Counter accessCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("quiz.access.denied")
+                .tag("outcome", outcome)
+                .description("Quiz requests answered with 403 or 404")
+                .register(meterRegistry);
+    }
+}
+
+class TimedPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder delegate;
+    private final QuizMetrics quizMetrics;
+
+    TimedPasswordEncoder(PasswordEncoder delegate, QuizMetrics quizMetrics) {
+        this.delegate = delegate;
+        this.quizMetrics = quizMetrics;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return quizMetrics.time(QuizMetrics.Stage.BCRYPT, () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+}
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread.
+ * The count is reset at the start of every request by {@link SqlStatementCountFilter}.
+ */
+class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    static int current() {
+        return COUNT.get()[0];
+    }
+}
+
+/**
+ * Runs ahead of the security filters, so the user lookup on a credential
+ * cache miss is counted as well, and records the statement count per endpoint.
+ * The count is left in place for the metrics filter, which tags the request timer after this filter returns.
+ * Async responses (event streams, the streamed export) are not recorded: their
+ * statements run on other threads and would not show up in the count.
+ */
+class SqlStatementCountFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry meterRegistry;
+
+    SqlStatementCountFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        SqlStatementCounter.reset();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (!request.isAsyncStarted()) recordStatements(request, response);
+        }
+    }
+
+    private void recordStatements(HttpServletRequest request, HttpServletResponse response) {
+        DistributionSummary.builder("http.server.requests.sql.statements")
+                .tags(Tags.of(WebMvcTags.method(request), WebMvcTags.uri(request, response)))
+                .description("SQL statements executed per request")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(SqlStatementCounter.current());
+    }
+}
+
+/**
+ * Adds a bucketed {@code sql.statements} tag to {@code http.server.requests},
+ * so requests that suddenly issue more queries show up as their own series.
+ * Async requests are timed on their async dispatch, where the count is not
+ * theirs, so they get {@code async} instead of a bucket.
+ */
+class SqlCountingWebMvcTagsProvider extends DefaultWebMvcTagsProvider {
+
+    @Override
+    public Iterable<Tag> getTags(HttpServletRequest request,
+                                 HttpServletResponse response,
+                                 Object handler,
+                                 Throwable exception) {
+        return Tags.of(super.getTags(request, response, handler, exception))
+                .and("sql.statements", request.getDispatcherType() == DispatcherType.ASYNC
+                        ? "async" : bucket(SqlStatementCounter.current()));
+    }
+
+    private static String bucket(int statements) {
+        if (statements <= 3) return String.valueOf(statements);
+        if (statements <= 10) return "4-10";
+        return "11+";
+    }
+}
+
+@Configuration
+class QuizMetricsConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer sqlStatementCounterCustomizer() {
+        return properties -> properties.put("hibernate.session_factory.statement_inspector",
+                new SqlStatementCounter());
+    }
+
+    @Bean
+    public FilterRegistrationBean<SqlStatementCountFilter> sqlStatementCountFilter(MeterRegistry meterRegistry) {
+        FilterRegistrationBean<SqlStatementCountFilter> registration =
+                new FilterRegistrationBean<>(new SqlStatementCountFilter(meterRegistry));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 2);
+        return registration;
+    }
+
+    @Bean
+    public SqlCountingWebMvcTagsProvider sqlCountingWebMvcTagsProvider() {
+        return new SqlCountingWebMvcTagsProvider();
+    }
+}
@@ -26,4 +26,41 @@ class AccessForbiddenException extends RuntimeException {
     public AccessForbiddenException(String msg) {
         super(msg);
     }
-}
\ No newline at end of file
+}
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(String msg) {
+        super(msg);
+    }
+}
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+class InvalidPageRequestException extends RuntimeException {
+    public InvalidPageRequestException(String msg) {
+        super(msg);
+    }
+}
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+class TooManySubscribersException extends RuntimeException {
+    public TooManySubscribersException(String msg) {
+        super(msg);
+    }
+}
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+class SolveThrottledException extends RuntimeException {
+    private final String limit;
+    private final long waitNanos;
+
+    public SolveThrottledException(String limit, long waitNanos) {
+        super("Too many answers, try again later!");
+        this.limit = limit;
+        this.waitNanos = waitNanos;
+    }
+
+    public String getLimit() {
+        return limit;
+    }
+
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+}
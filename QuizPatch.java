@@ -0,0 +1,284 @@
+package engine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One RFC 6902 operation as sent in a PATCH body.
+ */
+class QuizPatchOperation {
+    private String op;
+    private String path;
+    private String from;
+    private JsonNode value;
+
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    public JsonNode getValue() {
+        return value;
+    }
+
+    public void setValue(JsonNode value) {
+        this.value = value;
+    }
+}
+
+/**
+ * Applies JSON-Patch operations straight to the patchable fields of a quiz:
+ * {@code /title}, {@code /text}, {@code /options}, {@code /options/<index>}
+ * (or {@code /options/-} to append) and {@code /answer}, which reads and
+ * writes the answer as an array of option indices. Only the touched fields
+ * are assigned, so a dynamically updated entity writes just those columns.
+ * Operations apply in order and stop at the first failure; the caller
+ * discards the quiz in that case.
+ */
+final class QuizPatch {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private QuizPatch() {
+    }
+
+    static void apply(List<QuizPatchOperation> operations, Quiz quiz) {
+        if (operations == null) throw invalid("The patch must be a JSON array of operations");
+        for (QuizPatchOperation operation : operations) {
+            if (operation == null || operation.getOp() == null) throw invalid("Every operation needs an \"op\"");
+            Pointer path = Pointer.parse(operation.getPath());
+            switch (operation.getOp()) {
+                case "add":
+                    add(quiz, path, required(operation));
+                    break;
+                case "remove":
+                    remove(quiz, path);
+                    break;
+                case "replace":
+                    get(quiz, path);
+                    set(quiz, path, required(operation));
+                    break;
+                case "move": {
+                    Pointer from = Pointer.parse(operation.getFrom());
+                    JsonNode value = get(quiz, from);
+                    remove(quiz, from);
+                    add(quiz, path, value);
+                    break;
+                }
+                case "copy":
+                    add(quiz, path, get(quiz, Pointer.parse(operation.getFrom())));
+                    break;
+                case "test":
+                    if (!get(quiz, path).equals(required(operation))) {
+                        throw new PreconditionFailedException(
+                                String.format("The patch test on %s failed!", operation.getPath()));
+                    }
+                    break;
+                default:
+                    throw invalid("Unsupported patch operation '" + operation.getOp() + "'");
+            }
+        }
+    }
+
+    private static JsonNode get(Quiz quiz, Pointer path) {
+        switch (path.field) {
+            case "title":
+                return text(quiz.getTitle());
+            case "text":
+                return text(quiz.getText());
+            case "answer":
+                return answerNode(quiz.getAnswer());
+            default:
+                String[] options = quiz.getOptions() != null ? quiz.getOptions() : new String[0];
+                if (path.index == null) {
+                    ArrayNode node = NODES.arrayNode(options.length);
+                    for (String option : options) node.add(option);
+                    return node;
+                }
+                return TextNode.valueOf(options[path.existingIndex(options.length)]);
+        }
+    }
+
+    private static void add(Quiz quiz, Pointer path, JsonNode value) {
+        if (path.field.equals("options") && path.index != null) {
+            List<String> options = options(quiz);
+            options.add(path.insertionIndex(options.size()), string(path, value));
+            quiz.setOptions(options.toArray(new String[0]));
+        } else {
+            set(quiz, path, value);
+        }
+    }
+
+    private static void remove(Quiz quiz, Pointer path) {
+        switch (path.field) {
+            case "title":
+                quiz.setTitle(null);
+                break;
+            case "text":
+                quiz.setText(null);
+                break;
+            case "answer":
+                quiz.setAnswer(0);
+                break;
+            default:
+                if (path.index == null) {
+                    quiz.setOptions(null);
+                } else {
+                    List<String> options = options(quiz);
+                    options.remove(path.existingIndex(options.size()));
+                    quiz.setOptions(options.toArray(new String[0]));
+                }
+        }
+    }
+
+    private static void set(Quiz quiz, Pointer path, JsonNode value) {
+        switch (path.field) {
+            case "title":
+                quiz.setTitle(string(path, value));
+                break;
+            case "text":
+                quiz.setText(string(path, value));
+                break;
+            case "answer":
+                quiz.setAnswer(answerMask(path, value));
+                break;
+            default:
+                if (path.index == null) {
+                    if (value.isNull()) {
+                        quiz.setOptions(null);
+                        break;
+                    }
+                    if (!value.isArray()) throw invalid(path + " must be an array of strings");
+                    String[] options = new String[value.size()];
+                    for (int i = 0; i < options.length; i++) options[i] = string(path, value.get(i));
+                    quiz.setOptions(options);
+                } else {
+                    String[] options = quiz.getOptions() != null ? quiz.getOptions().clone() : new String[0];
+                    options[path.existingIndex(options.length)] = string(path, value);
+                    quiz.setOptions(options);
+                }
+        }
+    }
+
+    private static List<String> options(Quiz quiz) {
+        return quiz.getOptions() != null ? new ArrayList<>(Arrays.asList(quiz.getOptions())) : new ArrayList<>();
+    }
+
+    private static JsonNode required(QuizPatchOperation operation) {
+        if (operation.getValue() == null) {
+            throw invalid("The '" + operation.getOp() + "' operation on " + operation.getPath() + " needs a value");
+        }
+        return operation.getValue();
+    }
+
+    private static JsonNode text(String value) {
+        return value != null ? TextNode.valueOf(value) : NODES.nullNode();
+    }
+
+    private static String string(Pointer path, JsonNode value) {
+        if (value.isNull()) return null;
+        if (!value.isTextual()) throw invalid(path + " must be a string");
+        return value.textValue();
+    }
+
+    private static JsonNode answerNode(int mask) {
+        ArrayNode node = NODES.arrayNode();
+        for (int option = 0; option < Integer.SIZE; option++) {
+            if ((mask & (1 << option)) != 0) node.add(option);
+        }
+        return node;
+    }
+
+    private static int answerMask(Pointer path, JsonNode value) {
+        if (value.isNull()) return 0;
+        if (!value.isArray()) throw invalid(path + " must be an array of option indices");
+        int mask = 0;
+        for (JsonNode option : value) {
+            if (!option.isInt() || option.intValue() < 0 || option.intValue() >= AnswerMask.MAX_OPTIONS) {
+                throw invalid(String.format("answer options must be between 0 and %d", AnswerMask.MAX_OPTIONS - 1));
+            }
+            mask |= 1 << option.intValue();
+        }
+        return mask;
+    }
+
+    private static InvalidQuizException invalid(String message) {
+        return new InvalidQuizException(message);
+    }
+
+    /**
+     * A JSON pointer into a quiz: one of the patchable fields, and for the options
+     * an optional array index ({@code null} when absent, {@code -1} for {@code -}).
+     */
+    private static final class Pointer {
+        private static final List<String> FIELDS = Arrays.asList("title", "text", "options", "answer");
+
+        final String field;
+        final Integer index;
+        private final String pointer;
+
+        private Pointer(String field, Integer index, String pointer) {
+            this.field = field;
+            this.index = index;
+            this.pointer = pointer;
+        }
+
+        static Pointer parse(String pointer) {
+            if (pointer == null || !pointer.startsWith("/")) throw invalid("Invalid JSON pointer '" + pointer + "'");
+            String[] tokens = pointer.substring(1).split("/", -1);
+            String field = unescape(tokens[0]);
+            if (!FIELDS.contains(field) || tokens.length > 2 || (tokens.length == 2 && !field.equals("options"))) {
+                throw invalid("There is no " + pointer + " in a quiz");
+            }
+            if (tokens.length == 1) return new Pointer(field, null, pointer);
+            if (tokens[1].equals("-")) return new Pointer(field, -1, pointer);
+            if (!tokens[1].matches("0|[1-9][0-9]{0,8}")) throw invalid("Invalid array index in " + pointer);
+            return new Pointer(field, Integer.parseInt(tokens[1]), pointer);
+        }
+
+        int existingIndex(int size) {
+            if (index == null || index < 0 || index >= size) throw invalid("There is no " + pointer + " in the quiz");
+            return index;
+        }
+
+        int insertionIndex(int size) {
+            if (index == -1) return size;
+            if (index > size) throw invalid("There is no " + pointer + " in the quiz");
+            return index;
+        }
+
+        private static String unescape(String token) {
+            return token.replace("~1", "/").replace("~0", "~");
+        }
+
+        @Override
+        public String toString() {
+            return pointer;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory inverted index over quiz titles, texts and options.
+ * Every term maps to an id-sorted postings list carrying a per-quiz weight
+ * (a title hit counts more than a text hit, which counts more than an option hit).
+ * A query matches quizzes containing all of its terms, ranked by the
+ * idf-weighted sum of those weights. The index is built once at startup
+ * and then kept current by {@link QuizChanges}.
+ */
+@Component
+class QuizSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(QuizSearchIndex.class);
+    private static final int TITLE_WEIGHT = 4;
+    private static final int TEXT_WEIGHT = 2;
+    private static final int OPTION_WEIGHT = 1;
+    private static final int MIN_TERM_LENGTH = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, String[]> documentTerms = new HashMap<>();
+
+    @Autowired
+    private QuizRepository quizRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @PostConstruct
+    void build() {
+        long start = System.nanoTime();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.execute(status -> {
+            try (Stream<Quiz> quizzes = quizRepository.streamAllBy()) {
+                quizzes.forEach(quiz -> {
+                    index(quiz);
+                    entityManager.detach(quiz);
+                });
+            }
+            return null;
+        });
+        log.info("Indexed {} quizzes ({} terms) in {} ms", size(), terms(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Adds the quiz to the index, replacing whatever was indexed for its id before.
+     */
+    public void index(Quiz quiz) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        addTerms(weights, quiz.getTitle(), TITLE_WEIGHT);
+        addTerms(weights, quiz.getText(), TEXT_WEIGHT);
+        if (quiz.getOptions() != null) {
+            for (String option : quiz.getOptions()) addTerms(weights, option, OPTION_WEIGHT);
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(quiz.getId());
+            String[] terms = new String[weights.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+                Postings termPostings = postings.computeIfAbsent(weight.getKey(), Postings::new);
+                termPostings.put(quiz.getId(), weight.getValue());
+                terms[i++] = termPostings.term;
+            }
+            documentTerms.put(quiz.getId(), terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long quizId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(quizId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks the quizzes matching every term of the query and returns the ids
+     * in [offset, offset + limit) of that ranking, together with the match count.
+     */
+    public SearchResult search(String query, int offset, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty()) return SearchResult.EMPTY;
+
+        lock.readLock().lock();
+        try {
+            Postings[] lists = new Postings[terms.size()];
+            double[] idf = new double[terms.size()];
+            int n = 0;
+            for (String term : terms) {
+                Postings termPostings = postings.get(term);
+                if (termPostings == null || termPostings.size == 0) return SearchResult.EMPTY;
+                lists[n++] = termPostings;
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+            for (int i = 0; i < lists.length; i++) {
+                idf[i] = Math.log(1 + (double) documentTerms.size() / lists[i].size);
+            }
+
+            TopHits top = new TopHits(offset + limit);
+            int[] cursors = new int[lists.length];
+            long matches = 0;
+            Postings rarest = lists[0];
+            candidates:
+            for (int c = 0; c < rarest.size; c++) {
+                long id = rarest.ids[c];
+                double score = rarest.weights[c] * idf[0];
+                for (int i = 1; i < lists.length; i++) {
+                    int position = lists[i].seek(id, cursors[i]);
+                    cursors[i] = position;
+                    if (position >= lists[i].size || lists[i].ids[position] != id) continue candidates;
+                    score += lists[i].weights[position] * idf[i];
+                }
+                matches++;
+                top.offer(id, score);
+            }
+            return new SearchResult(top.rankedIds(offset), matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentTerms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int terms() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(long quizId) {
+        String[] terms = documentTerms.remove(quizId);
+        if (terms == null) return;
+        for (String term : terms) {
+            Postings termPostings = postings.get(term);
+            termPostings.remove(quizId);
+            if (termPostings.size == 0) postings.remove(term);
+        }
+    }
+
+    private static void addTerms(Map<String, Integer> weights, String field, int weight) {
+        for (String term : tokenize(field)) weights.merge(term, weight, Integer::sum);
+    }
+
+    /**
+     * Lower-cased runs of letters and digits, at least two characters long.
+     */
+    static List<String> tokenize(String value) {
+        if (value == null || value.isEmpty()) return Collections.emptyList();
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            boolean wordChar = i < value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) terms.add(value.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    static class SearchResult {
+        static final SearchResult EMPTY = new SearchResult(Collections.emptyList(), 0);
+
+        private final List<Long> ids;
+        private final long total;
+
+        SearchResult(List<Long> ids, long total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        List<Long> getIds() {
+            return ids;
+        }
+
+        long getTotal() {
+            return total;
+        }
+    }
+
+    /**
+     * Bounded min-heap of the best hits so far, kept in parallel primitive
+     * arrays because common terms offer hundreds of thousands of candidates.
+     * Higher scores rank first; equal scores rank the older (lower) id first.
+     */
+    private static final class TopHits {
+        private final int capacity;
+        private long[] ids;
+        private double[] scores;
+        private int size;
+
+        TopHits(int capacity) {
+            this.capacity = capacity;
+            this.ids = new long[Math.min(capacity, 1024)];
+            this.scores = new double[ids.length];
+        }
+
+        void offer(long id, double score) {
+            if (size < capacity) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, Math.min(capacity, size * 2));
+                    scores = Arrays.copyOf(scores, ids.length);
+                }
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (worse(ids[0], scores[0], id, score)) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Empties the heap and returns the ids from the given rank on, best first.
+         */
+        List<Long> rankedIds(int offset) {
+            Long[] ranked = new Long[size];
+            while (size > 0) {
+                ranked[size - 1] = ids[0];
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+            return offset >= ranked.length
+                    ? Collections.emptyList()
+                    : Arrays.asList(ranked).subList(offset, ranked.length);
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (!worse(ids[position], scores[position], ids[parent], scores[parent])) break;
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) break;
+                if (child + 1 < size && worse(ids[child + 1], scores[child + 1], ids[child], scores[child])) child++;
+                if (!worse(ids[child], scores[child], ids[position], scores[position])) break;
+                swap(position, child);
+                position = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+
+        private static boolean worse(long id, double score, long otherId, double otherScore) {
+            return score < otherScore || (score == otherScore && id > otherId);
+        }
+    }
+
+    /**
+     * Quiz ids containing one term, kept sorted so lists can be intersected by seeking.
+     * New quizzes get the highest ids, so inserts are almost always appends.
+     */
+    private static final class Postings {
+        private static final int LINEAR_STEPS = 4;
+
+        final String term;
+        long[] ids = new long[2];
+        short[] weights = new short[2];
+        int size;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void put(long id, int weight) {
+            int position = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            short clamped = (short) Math.min(weight, Short.MAX_VALUE);
+            if (position >= 0 && position < size) {
+                weights[position] = clamped;
+                return;
+            }
+            if (position < 0) position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            System.arraycopy(weights, position, weights, position + 1, size - position);
+            ids[position] = id;
+            weights[position] = clamped;
+            size++;
+        }
+
+        void remove(long id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) return;
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            System.arraycopy(weights, position + 1, weights, position, size - position - 1);
+            size--;
+        }
+
+        /**
+         * First position at or after {@code from} whose id is not below {@code id}.
+         * Dense lists usually find it within a few steps; otherwise gallop and binary search.
+         */
+        int seek(long id, int from) {
+            for (int step = 0; step < LINEAR_STEPS; step++, from++) {
+                if (from >= size || ids[from] >= id) return from;
+            }
+            int bound = 1;
+            while (from + bound < size && ids[from + bound] < id) bound <<= 1;
+            int position = Arrays.binarySearch(ids, from + (bound >> 1), Math.min(from + bound + 1, size), id);
+            return position >= 0 ? position : -position - 1;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package engine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Sorted ids of every quiz in the catalogue, so a random quiz is one array
+ * read instead of an {@code ORDER BY RAND()} scan. Built at startup and kept
+ * current by {@link QuizChanges}; new quizzes get the highest ids, so adding
+ * one is an append.
+ */
+@Component
+class QuizIdIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(QuizIdIndex.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] ids = new long[1024];
+    private int size;
+
+    @Autowired
+    private QuizRepository quizRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PostConstruct
+    void build() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.execute(status -> {
+            try (Stream<Long> quizIds = quizRepository.streamIds()) {
+                quizIds.forEach(this::add);
+            }
+            return null;
+        });
+        log.info("Indexed {} quiz ids for sampling", size());
+    }
+
+    public void add(long id) {
+        lock.writeLock().lock();
+        try {
+            int position = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0 && position < size) return;
+            if (position < 0) position = -position - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) return;
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Up to {@code count} distinct random ids that {@code solved} doesn't contain.
+     * Draws random positions while most draws hit; once unsolved quizzes get
+     * scarce it walks the array from a random start instead, so a user who has
+     * solved nearly everything still gets an answer in one pass.
+     */
+    public List<Long> sample(int count, SolvedQuizzes solved) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        lock.readLock().lock();
+        try {
+            Set<Long> picked = new HashSet<>();
+            List<Long> sample = new ArrayList<>(Math.min(count, size));
+            for (int draw = 0; draw < 4 * count && sample.size() < count && size > 0; draw++) {
+                long id = ids[random.nextInt(size)];
+                if (!solved.contains(id) && picked.add(id)) sample.add(id);
+            }
+            if (sample.size() < count && size > 0) {
+                int start = random.nextInt(size);
+                LongPredicate take = id -> {
+                    if (picked.add(id)) sample.add(id);
+                    return sample.size() < count;
+                };
+                if (solved.forEachUnsolved(ids, start, size, take)) solved.forEachUnsolved(ids, 0, start, take);
+            }
+            return sample;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
+
+/**
+ * The quizzes one user has solved, as a sorted array of quiz ids: eight bytes
+ * per solved quiz, whatever the ids are, where a bitset would cost one bit
+ * per id up to the largest one.
+ */
+class SolvedQuizzes {
+
+    private long[] ids;
+    private int size;
+
+    SolvedQuizzes(List<Long> quizIds) {
+        ids = new long[Math.max(quizIds.size(), 8)];
+        for (Long id : quizIds) ids[size++] = id;
+        Arrays.sort(ids, 0, size);
+    }
+
+    public synchronized boolean contains(long quizId) {
+        return Arrays.binarySearch(ids, 0, size, quizId) >= 0;
+    }
+
+    public synchronized void add(long quizId) {
+        int position = Arrays.binarySearch(ids, 0, size, quizId);
+        if (position >= 0) return;
+        position = -position - 1;
+        if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = quizId;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Passes each id of the sorted range {@code quizIds[from, to)} that isn't
+     * solved to {@code action} until it returns false, merging the two sorted
+     * arrays in one pass. Returns whether the whole range was seen.
+     */
+    public synchronized boolean forEachUnsolved(long[] quizIds, int from, int to, LongPredicate action) {
+        if (from >= to) return true;
+        int next = Arrays.binarySearch(ids, 0, size, quizIds[from]);
+        if (next < 0) next = -next - 1;
+        for (int i = from; i < to; i++) {
+            long id = quizIds[i];
+            while (next < size && ids[next] < id) next++;
+            if (next < size && ids[next] == id) continue;
+            if (!action.test(id)) return false;
+        }
+        return true;
+    }
+}
+
+/**
+ * Solved-quiz sets of recently active users. A set is loaded from
+ * {@code solved_quiz} when a user first asks for a session and then updated
+ * as they solve quizzes, so later sessions don't query the history again.
+ * The cache is bounded by the total number of quiz ids it holds; updates go
+ * through {@code compute} so that each set is weighed again as it grows.
+ */
+@Component
+class SolvedQuizSets {
+
+    private final Cache<Long, SolvedQuizzes> cache;
+    private final SolvedQuizRepository solvedQuizRepository;
+
+    @Autowired
+    SolvedQuizSets(SolvedQuizRepository solvedQuizRepository,
+                   MeterRegistry meterRegistry,
+                   @Value("${engine.sessions.solved-cache.max-quiz-ids:10000000}") long maxQuizIds,
+                   @Value("${engine.sessions.solved-cache.idle-minutes:30}") long idleMinutes) {
+        this.solvedQuizRepository = solvedQuizRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxQuizIds)
+                .<Long, SolvedQuizzes>weigher((userId, solved) -> solved.size() + 1)
+                .expireAfterAccess(idleMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "solved-quizzes");
+    }
+
+    public SolvedQuizzes get(long userId) {
+        return cache.get(userId, id -> new SolvedQuizzes(solvedQuizRepository.findSolvedQuizIds(id)));
+    }
+
+    public void solved(long userId, long quizId) {
+        cache.asMap().computeIfPresent(userId, (id, solved) -> {
+            solved.add(quizId);
+            return solved;
+        });
+    }
+}
+
+/**
+ * A practice session: the sampled quizzes and, for each one, the order its
+ * options were shown in ({@code order[shown] = original}).
+ */
+class QuizSession {
+
+    private final String id;
+    private final long userId;
+    private final Map<Long, int[]> optionOrders;
+
+    QuizSession(String id, long userId, Map<Long, int[]> optionOrders) {
+        this.id = id;
+        this.userId = userId;
+        this.optionOrders = optionOrders;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Translates an answer given in shown positions into original option positions,
+     * or returns -1 for a quiz which isn't part of the session. Positions past the
+     * last option are kept as they are, so they still grade as wrong.
+     */
+    public int originalAnswer(long quizId, int shownAnswer) {
+        int[] order = optionOrders.get(quizId);
+        if (order == null) return -1;
+        int answer = 0;
+        for (int shown = 0; shown < Integer.SIZE; shown++) {
+            if ((shownAnswer & (1 << shown)) == 0) continue;
+            answer |= 1 << (shown < order.length ? order[shown] : shown);
+        }
+        return answer;
+    }
+}
+
+class QuizSessionView {
+    private final String id;
+    private final List<SessionQuiz> quizzes;
+
+    QuizSessionView(String id, List<SessionQuiz> quizzes) {
+        this.id = id;
+        this.quizzes = quizzes;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public List<SessionQuiz> getQuizzes() {
+        return quizzes;
+    }
+}
+
+class SessionQuiz {
+    private final long id;
+    private final String title;
+    private final String text;
+    private final String[] options;
+
+    SessionQuiz(long id, String title, String text, String[] options) {
+        this.id = id;
+        this.title = title;
+        this.text = text;
+        this.options = options;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String[] getOptions() {
+        return options;
+    }
+}
+
+@Service
+class QuizSessionService {
+
+    private final String SESSION_NOT_FOUND = "There is no such session!";
+    private final String INVALID_SIZE = "A session holds between 1 and %d quizzes!";
+    private final String NOT_IN_SESSION = "The quiz is not part of this session!";
+
+    private final Cache<String, QuizSession> sessions;
+
+    @Autowired
+    private QuizIdIndex quizIdIndex;
+
+    @Autowired
+    private SolvedQuizSets solvedQuizSets;
+
+    @Autowired
+    private QuizCache quizCache;
+
+    @Autowired
+    private QuizSolveService quizSolveService;
+
+    @Value("${engine.sessions.max-size:50}")
+    private int maxSize;
+
+    @Autowired
+    QuizSessionService(MeterRegistry meterRegistry,
+                       @Value("${engine.sessions.max-sessions:100000}") long maxSessions,
+                       @Value("${engine.sessions.ttl-minutes:30}") long ttlMinutes) {
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "quiz-sessions");
+    }
+
+    public QuizSessionView createSession(int size, long userId) {
+        if (size < 1 || size > maxSize) throw new InvalidPageRequestException(String.format(INVALID_SIZE, maxSize));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<SessionQuiz> quizzes = new ArrayList<>(size);
+        Map<Long, int[]> optionOrders = new LinkedHashMap<>();
+        List<Long> quizIds = quizIdIndex.sample(size, solvedQuizSets.get(userId));
+        Map<Long, QuizSnapshot> snapshots = quizCache.getAll(quizIds);
+        for (long quizId : quizIds) {
+            QuizSnapshot quiz = snapshots.get(quizId);
+            if (quiz == null) continue;
+            String[] options = quiz.getOptions();
+            int[] order = new int[options.length];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            String[] shownOptions = new String[options.length];
+            for (int shown = 0; shown < order.length; shown++) shownOptions[shown] = options[order[shown]];
+            optionOrders.put(quizId, order);
+            quizzes.add(new SessionQuiz(quizId, quiz.getTitle(), quiz.getText(), shownOptions));
+        }
+        QuizSession session = new QuizSession(UUID.randomUUID().toString(), userId, optionOrders);
+        sessions.put(session.getId(), session);
+        return new QuizSessionView(session.getId(), quizzes);
+    }
+
+    /**
+     * Grades every answer of a session in one batch and closes the session.
+     * Each quiz of the session is graded at most once. A throttled batch
+     * leaves the session open, so it can be sent again after Retry-After.
+     */
+    public List<BulkQuizResult> submitAnswers(String sessionId, List<BulkAnswer> answers, long userId) {
+        QuizSession session = sessions.getIfPresent(sessionId);
+        if (session == null || session.getUserId() != userId) throw new QuizNotFoundException(SESSION_NOT_FOUND);
+        if (!sessions.asMap().remove(sessionId, session)) throw new QuizNotFoundException(SESSION_NOT_FOUND);
+
+        Set<Long> answered = new HashSet<>();
+        List<BulkAnswer> graded = new ArrayList<>(answers.size());
+        boolean[] inSession = new boolean[answers.size()];
+        for (int i = 0; i < answers.size(); i++) {
+            BulkAnswer answer = answers.get(i);
+            int originalAnswer = session.originalAnswer(answer.getQuizId(), answer.getAnswer());
+            if (originalAnswer < 0 || !answered.add(answer.getQuizId())) continue;
+            BulkAnswer original = new BulkAnswer();
+            original.setQuizId(answer.getQuizId());
+            original.setAnswer(originalAnswer);
+            graded.add(original);
+            inSession[i] = true;
+        }
+
+        Iterator<BulkQuizResult> gradedResults;
+        try {
+            gradedResults = graded.isEmpty()
+                    ? Collections.emptyIterator()
+                    : quizSolveService.solveAll(graded, userId).iterator();
+        } catch (SolveThrottledException e) {
+            sessions.asMap().putIfAbsent(sessionId, session);
+            throw e;
+        }
+        List<BulkQuizResult> results = new ArrayList<>(answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            results.add(inSession[i]
+                    ? gradedResults.next()
+                    : new BulkQuizResult(answers.get(i).getQuizId(), NOT_IN_SESSION));
+        }
+        return results;
+    }
+}
+
+@RestController
+@RequestMapping(value = "/api/sessions")
+class QuizSessionController {
+
+    @Autowired
+    private QuizSessionService quizSessionService;
+
+    @Autowired
+    private QuizSolveService quizSolveService;
+
+    @PostMapping
+    public QuizSessionView createSession(@RequestParam(defaultValue = "10") Integer size) {
+        return quizSessionService.createSession(size, QuizUserPrincipal.currentId());
+    }
+
+    @PostMapping(value = "/{id}/answers", consumes = "application/json")
+    public List<BulkQuizResult> submitAnswers(@PathVariable("id") String id, InputStream body) throws IOException {
+        return quizSessionService.submitAnswers(id, quizSolveService.readAnswers(body), QuizUserPrincipal.currentId());
+    }
+}
@@ -0,0 +1,366 @@
+package engine;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+@Entity
+@Table(name = "quiz_stats")
+class QuizStats {
+    @Id
+    @Column(name = "quiz_id")
+    private long quizId;
+
+    private long attempts;
+
+    private long successes;
+
+    private LocalDateTime lastSolvedAt;
+
+    public long getQuizId() {
+        return quizId;
+    }
+
+    public long getAttempts() {
+        return attempts;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public LocalDateTime getLastSolvedAt() {
+        return lastSolvedAt;
+    }
+}
+
+@Entity
+@Table(name = "user_stats")
+class UserStats {
+    @Id
+    @Column(name = "user_id")
+    private long userId;
+
+    private long completions;
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public long getCompletions() {
+        return completions;
+    }
+}
+
+@Repository
+interface QuizStatsRepository extends JpaRepository<QuizStats, Long> {
+}
+
+@Repository
+interface UserStatsRepository extends JpaRepository<UserStats, Long> {
+}
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+class QuizStatsView {
+    private final long id;
+    private final long attempts;
+    private final long successes;
+    private final String lastSolvedAt;
+
+    QuizStatsView(long id, long attempts, long successes, LocalDateTime lastSolvedAt) {
+        this.id = id;
+        this.attempts = attempts;
+        this.successes = successes;
+        this.lastSolvedAt = lastSolvedAt != null ? lastSolvedAt.toString() : null;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getAttempts() {
+        return attempts;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public String getLastSolvedAt() {
+        return lastSolvedAt;
+    }
+}
+
+class UserStatsView {
+    private final long completions;
+
+    UserStatsView(long completions) {
+        this.completions = completions;
+    }
+
+    public long getCompletions() {
+        return completions;
+    }
+}
+
+/**
+ * Solve counters kept in memory and written to quiz_stats/user_stats on a
+ * fixed delay, so reads never scan solved_quiz. Counters are striped
+ * (LongAdder) because popular quizzes are hit by many request threads at once.
+ * Rows hold absolute totals, which makes a repeated flush harmless.
+ * The top list is rebuilt on every flush and may lag by one flush interval.
+ */
+@Component
+class QuizStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(QuizStatistics.class);
+    private static final String MERGE_QUIZ_STATS =
+            "merge into quiz_stats (quiz_id, attempts, successes, last_solved_at) key (quiz_id) values (?, ?, ?, ?)";
+    private static final String MERGE_USER_STATS =
+            "merge into user_stats (user_id, completions) key (user_id) values (?, ?)";
+    private static final String DELETE_QUIZ_STATS = "delete from quiz_stats where quiz_id = ?";
+    private static final long DELETED_QUIZ_TTL_MINUTES = 60;
+    private static final Comparator<QuizStatsView> BY_SUCCESSES =
+            Comparator.comparingLong(QuizStatsView::getSuccesses)
+                    .thenComparingLong(QuizStatsView::getAttempts)
+                    .thenComparing(Comparator.comparingLong(QuizStatsView::getId).reversed());
+
+    private final Map<Long, QuizCounter> quizCounters = new ConcurrentHashMap<>();
+    private final Map<Long, UserCounter> userCounters = new ConcurrentHashMap<>();
+    private final Queue<Long> removedQuizzes = new ConcurrentLinkedQueue<>();
+    private final Cache<Long, Boolean> deletedQuizzes = Caffeine.newBuilder()
+            .expireAfterWrite(DELETED_QUIZ_TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+    private final JdbcTemplate jdbcTemplate;
+    private final QuizStatsRepository quizStatsRepository;
+    private final UserStatsRepository userStatsRepository;
+    private final int topSize;
+    private volatile List<QuizStatsView> top = Collections.emptyList();
+
+    @Autowired
+    QuizStatistics(JdbcTemplate jdbcTemplate,
+                   QuizStatsRepository quizStatsRepository,
+                   UserStatsRepository userStatsRepository,
+                   @Value("${engine.stats.top-size:100}") int topSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.quizStatsRepository = quizStatsRepository;
+        this.userStatsRepository = userStatsRepository;
+        this.topSize = topSize;
+    }
+
+    @PostConstruct
+    void load() {
+        if (quizStatsRepository.count() == 0 && userStatsRepository.count() == 0) {
+            backfill();
+        } else {
+            for (QuizStats stats : quizStatsRepository.findAll()) {
+                quizCounters.put(stats.getQuizId(), new QuizCounter(
+                        stats.getAttempts(), stats.getSuccesses(), stats.getLastSolvedAt(), false));
+            }
+            for (UserStats stats : userStatsRepository.findAll()) {
+                userCounters.put(stats.getUserId(), new UserCounter(stats.getCompletions(), false));
+            }
+        }
+        rebuildTop();
+    }
+
+    /**
+     * Answers to a quiz deleted in the meantime are still counted for the
+     * user, but don't bring the quiz's counter back.
+     */
+    public void record(long quizId, long userId, boolean success) {
+        QuizCounter quizCounter = quizCounters.computeIfAbsent(quizId,
+                id -> deletedQuizzes.getIfPresent(id) == null ? new QuizCounter() : null);
+        if (quizCounter == null) {
+            if (success) recordCompletion(userId);
+            return;
+        }
+        quizCounter.attempts.increment();
+        if (success) {
+            quizCounter.successes.increment();
+            quizCounter.lastSolved.accumulate(System.currentTimeMillis());
+            recordCompletion(userId);
+        }
+        quizCounter.dirty.set(true);
+    }
+
+    public QuizStatsView getQuizStats(long quizId) {
+        QuizCounter counter = quizCounters.get(quizId);
+        return counter != null ? counter.view(quizId) : new QuizStatsView(quizId, 0, 0, null);
+    }
+
+    public UserStatsView getUserStats(long userId) {
+        UserCounter counter = userCounters.get(userId);
+        return new UserStatsView(counter != null ? counter.completions.sum() : 0);
+    }
+
+    public List<QuizStatsView> getTop(int k) {
+        List<QuizStatsView> current = top;
+        return current.subList(0, Math.max(0, Math.min(k, current.size())));
+    }
+
+    /**
+     * Drops the counter and leaves a tombstone in the same atomic step, so a
+     * solve that passed its access check before the delete can't recreate it.
+     */
+    public void remove(long quizId) {
+        quizCounters.compute(quizId, (id, counter) -> {
+            deletedQuizzes.put(id, Boolean.TRUE);
+            return null;
+        });
+        removedQuizzes.add(quizId);
+    }
+
+    @Scheduled(fixedDelayString = "${engine.stats.flush-interval-ms:5000}")
+    public synchronized void flush() {
+        List<Object[]> quizRows = new ArrayList<>();
+        quizCounters.forEach((quizId, counter) -> {
+            if (counter.dirty.getAndSet(false)) {
+                long lastSolved = counter.lastSolved.get();
+                quizRows.add(new Object[]{quizId, counter.attempts.sum(), counter.successes.sum(),
+                        lastSolved > 0 ? new Timestamp(lastSolved) : null});
+            }
+        });
+        List<Object[]> userRows = new ArrayList<>();
+        userCounters.forEach((userId, counter) -> {
+            if (counter.dirty.getAndSet(false)) {
+                userRows.add(new Object[]{userId, counter.completions.sum()});
+            }
+        });
+        List<Object[]> removedRows = new ArrayList<>();
+        for (Long quizId; (quizId = removedQuizzes.poll()) != null; ) {
+            removedRows.add(new Object[]{quizId});
+        }
+
+        try {
+            if (!quizRows.isEmpty()) jdbcTemplate.batchUpdate(MERGE_QUIZ_STATS, quizRows);
+            if (!userRows.isEmpty()) jdbcTemplate.batchUpdate(MERGE_USER_STATS, userRows);
+            if (!removedRows.isEmpty()) jdbcTemplate.batchUpdate(DELETE_QUIZ_STATS, removedRows);
+        } catch (RuntimeException e) {
+            log.error("Failed to write statistics for {} quizzes and {} users",
+                    quizRows.size(), userRows.size(), e);
+            markDirty(quizRows, quizCounters);
+            markDirty(userRows, userCounters);
+            removedRows.forEach(row -> removedQuizzes.add((Long) row[0]));
+        }
+        if (!quizRows.isEmpty() || !removedRows.isEmpty()) rebuildTop();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flush();
+    }
+
+    /**
+     * Seeds the counters from solved_quiz the first time the statistics
+     * tables are used. Wrong attempts were never stored, so attempts start
+     * out equal to successes.
+     */
+    private void backfill() {
+        jdbcTemplate.query("select s.quiz_id, count(*), max(s.completed_at) from solved_quiz s " +
+                "join quiz q on q.quizid = s.quiz_id group by s.quiz_id", resultSet -> {
+            Timestamp lastSolved = resultSet.getTimestamp(3);
+            quizCounters.put(resultSet.getLong(1), new QuizCounter(resultSet.getLong(2), resultSet.getLong(2),
+                    lastSolved != null ? lastSolved.toLocalDateTime() : null, true));
+        });
+        jdbcTemplate.query("select solved_by, count(*) from solved_quiz group by solved_by", resultSet -> {
+            userCounters.put(resultSet.getLong(1), new UserCounter(resultSet.getLong(2), true));
+        });
+        if (!quizCounters.isEmpty()) {
+            log.info("Backfilled statistics for {} quizzes and {} users", quizCounters.size(), userCounters.size());
+        }
+    }
+
+    private void recordCompletion(long userId) {
+        UserCounter userCounter = userCounters.computeIfAbsent(userId, id -> new UserCounter());
+        userCounter.completions.increment();
+        userCounter.dirty.set(true);
+    }
+
+    private void rebuildTop() {
+        PriorityQueue<QuizStatsView> heap = new PriorityQueue<>(topSize + 1, BY_SUCCESSES);
+        quizCounters.forEach((quizId, counter) -> {
+            heap.add(counter.view(quizId));
+            if (heap.size() > topSize) heap.poll();
+        });
+        List<QuizStatsView> rebuilt = new ArrayList<>(heap);
+        rebuilt.sort(BY_SUCCESSES.reversed());
+        top = Collections.unmodifiableList(rebuilt);
+    }
+
+    private static void markDirty(List<Object[]> rows, Map<Long, ? extends Counter> counters) {
+        for (Object[] row : rows) {
+            Counter counter = counters.get((Long) row[0]);
+            if (counter != null) counter.dirty.set(true);
+        }
+    }
+
+    private abstract static class Counter {
+        final AtomicBoolean dirty = new AtomicBoolean();
+    }
+
+    private static class QuizCounter extends Counter {
+        final LongAdder attempts = new LongAdder();
+        final LongAdder successes = new LongAdder();
+        final LongAccumulator lastSolved = new LongAccumulator(Math::max, 0);
+
+        QuizCounter() {
+        }
+
+        QuizCounter(long attempts, long successes, LocalDateTime lastSolvedAt, boolean dirty) {
+            this.attempts.add(attempts);
+            this.successes.add(successes);
+            if (lastSolvedAt != null) this.lastSolved.accumulate(Timestamp.valueOf(lastSolvedAt).getTime());
+            this.dirty.set(dirty);
+        }
+
+        QuizStatsView view(long quizId) {
+            long lastSolvedMillis = lastSolved.get();
+            return new QuizStatsView(quizId, attempts.sum(), successes.sum(),
+                    lastSolvedMillis > 0 ? new Timestamp(lastSolvedMillis).toLocalDateTime() : null);
+        }
+    }
+
+    private static class UserCounter extends Counter {
+        final LongAdder completions = new LongAdder();
+
+        UserCounter() {
+        }
+
+        UserCounter(long completions, boolean dirty) {
+            this.completions.add(completions);
+            this.dirty.set(dirty);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.AbstractDependsOnBeanFactoryPostProcessor;
+import org.springframework.boot.autoconfigure.data.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationInitializer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Stores quiz options in one text column as length-prefixed strings,
+ * e.g. {@code ["Yes", "No"]} becomes {@code 3:Yes2:No}.
+ */
+@Converter
+class QuizOptionsConverter implements AttributeConverter<String[], String> {
+
+    @Override
+    public String convertToDatabaseColumn(String[] options) {
+        if (options == null) return null;
+        StringBuilder encoded = new StringBuilder();
+        for (String option : options) {
+            String value = option != null ? option : "";
+            encoded.append(value.length()).append(':').append(value);
+        }
+        return encoded.toString();
+    }
+
+    @Override
+    public String[] convertToEntityAttribute(String encoded) {
+        if (encoded == null) return null;
+        List<String> options = new ArrayList<>(4);
+        int position = 0;
+        while (position < encoded.length()) {
+            int separator = encoded.indexOf(':', position);
+            int length = Integer.parseInt(encoded.substring(position, separator));
+            options.add(encoded.substring(separator + 1, separator + 1 + length));
+            position = separator + 1 + length;
+        }
+        return options.toArray(new String[0]);
+    }
+}
+
+/**
+ * Correct answers are kept as a bitmask, bit {@code i} meaning option {@code i}.
+ */
+final class AnswerMask {
+
+    static final int MAX_OPTIONS = 4;
+
+    private AnswerMask() {
+    }
+
+    static int of(Collection<Integer> answer) {
+        int mask = 0;
+        if (answer == null) return mask;
+        for (Integer option : answer) {
+            if (option == null || option < 0 || option >= MAX_OPTIONS) {
+                throw new IllegalArgumentException("Answer option " + option + " is out of range");
+            }
+            mask |= 1 << option;
+        }
+        return mask;
+    }
+}
+
+/**
+ * Brings quiz tables written by older versions up to the current layout:
+ * options and answer kept as Java-serialized blobs are converted to the
+ * option_list/answer_mask columns, and the id sequence is created past the
+ * ids handed out by the former identity column.
+ * Runs before Flyway and the entity manager factory, so neither ever sees the old layout.
+ */
+@Component("legacyQuizStorageMigration")
+class LegacyQuizStorageMigration implements InitializingBean {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyQuizStorageMigration.class);
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final QuizOptionsConverter optionsConverter = new QuizOptionsConverter();
+
+    /**
+     * Takes the data source rather than the shared JdbcTemplate, which itself
+     * waits for Flyway.
+     */
+    @Autowired
+    LegacyQuizStorageMigration(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (quizTableExists()) {
+            if (legacyColumnsExist()) migrateLegacyColumns();
+            if (!quizSequenceExists()) createQuizSequence();
+        }
+    }
+
+    /**
+     * Quizzes that don't fit the new layout (more than {@link AnswerMask#MAX_OPTIONS}
+     * options or answer indices past them, or options longer than the column)
+     * stop the migration before the old columns are dropped, so it runs again
+     * in full on the next start once they are fixed.
+     */
+    private void migrateLegacyColumns() {
+        jdbcTemplate.execute("alter table quiz add column if not exists option_list varchar(" +
+                Quiz.OPTION_LIST_LENGTH + ")");
+        jdbcTemplate.execute("alter table quiz add column if not exists answer_mask integer");
+
+        List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+        List<Long> rejected = new ArrayList<>();
+        int[] migrated = {0};
+        jdbcTemplate.query("select quizid, options, answer from quiz", resultSet -> {
+            long quizId = resultSet.getLong("quizid");
+            String[] options = (String[]) deserialize(resultSet.getBytes("options"));
+            @SuppressWarnings("unchecked")
+            HashSet<Integer> answer = (HashSet<Integer>) deserialize(resultSet.getBytes("answer"));
+            String optionList = optionsConverter.convertToDatabaseColumn(options);
+            int answerMask;
+            try {
+                answerMask = AnswerMask.of(answer);
+            } catch (IllegalArgumentException e) {
+                answerMask = -1;
+            }
+            if (answerMask < 0 || (options != null && options.length > AnswerMask.MAX_OPTIONS)
+                    || (optionList != null && optionList.length() > Quiz.OPTION_LIST_LENGTH)) {
+                rejected.add(quizId);
+                return;
+            }
+            batch.add(new Object[]{optionList, answerMask, quizId});
+            if (batch.size() == BATCH_SIZE) {
+                migrated[0] += writeBatch(batch);
+            }
+        });
+        migrated[0] += writeBatch(batch);
+        if (!rejected.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "%d quizzes don't fit the compact columns and must be fixed before they can be migrated: %s",
+                    rejected.size(), rejected.subList(0, Math.min(rejected.size(), 100))));
+        }
+
+        jdbcTemplate.execute("alter table quiz drop column options");
+        jdbcTemplate.execute("alter table quiz drop column answer");
+        log.info("Migrated {} quizzes to the compact options/answer columns", migrated[0]);
+    }
+
+    private void createQuizSequence() {
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(quizid), 0) from quiz", Long.class);
+        long start = (maxId != null ? maxId : 0) + Quiz.ID_ALLOCATION_SIZE;
+        jdbcTemplate.execute(String.format("create sequence if not exists %s start with %d increment by %d",
+                Quiz.ID_SEQUENCE, start, Quiz.ID_ALLOCATION_SIZE));
+        log.info("Created {} starting at {}", Quiz.ID_SEQUENCE, start);
+    }
+
+    private boolean quizTableExists() {
+        Integer tables = jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.tables where table_name = 'QUIZ'",
+                Integer.class);
+        return tables != null && tables > 0;
+    }
+
+    private boolean quizSequenceExists() {
+        Integer sequences = jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.sequences where upper(sequence_name) = upper(?)",
+                Integer.class, Quiz.ID_SEQUENCE);
+        return sequences != null && sequences > 0;
+    }
+
+    private boolean legacyColumnsExist() {
+        Integer columns = jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.columns " +
+                        "where table_name = 'QUIZ' and column_name in ('OPTIONS', 'ANSWER')",
+                Integer.class);
+        return columns != null && columns == 2;
+    }
+
+    private int writeBatch(List<Object[]> batch) {
+        if (batch.isEmpty()) return 0;
+        jdbcTemplate.batchUpdate("update quiz set option_list = ?, answer_mask = ? where quizid = ?", batch);
+        int written = batch.size();
+        batch.clear();
+        return written;
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        if (bytes == null) return null;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unreadable legacy quiz column", e);
+        }
+    }
+}
+
+@Component
+class LegacyQuizStorageMigrationDependency extends EntityManagerFactoryDependsOnPostProcessor {
+
+    LegacyQuizStorageMigrationDependency() {
+        super("legacyQuizStorageMigration");
+    }
+}
+
+/**
+ * Flyway runs after the legacy columns are converted and quiz_sequence starts
+ * past the existing ids, so the baseline migration only fills in the rest.
+ */
+@Component
+class LegacyQuizStorageMigrationFlywayDependency extends AbstractDependsOnBeanFactoryPostProcessor {
+
+    LegacyQuizStorageMigrationFlywayDependency() {
+        super(FlywayMigrationInitializer.class, "legacyQuizStorageMigration");
+    }
+}
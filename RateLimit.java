@@ -0,0 +1,277 @@
+package engine;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.NumberUtils;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket in its GCRA form: the whole state is the theoretical arrival
+ * time of the next request, advanced with a CAS, so admitting or rejecting
+ * a request never takes a lock.
+ */
+class RateLimitBucket {
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Takes tokens worth {@code costNanos} of refill, one interval per token, or
+     * returns how many nanoseconds to wait until they are available. A cost
+     * above the burst is admitted once the bucket is full and leaves it in
+     * debt, so large batches still average out at the configured rate.
+     */
+    long tryAcquire(long now, long costNanos, long burstNanos) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long next = Math.max(arrival, now) + costNanos;
+            long wait = next - now - Math.max(burstNanos, costNanos);
+            if (wait > 0) return wait;
+            if (theoreticalArrival.compareAndSet(arrival, next)) return 0;
+        }
+    }
+
+    /**
+     * Gives back tokens that were taken but not used.
+     */
+    void refund(long costNanos) {
+        theoreticalArrival.addAndGet(-costNanos);
+    }
+}
+
+/**
+ * Solve attempts allowed per user and per quiz. Buckets live in Caffeine
+ * caches that drop keys idle for longer than a full refill, so an evicted
+ * bucket comes back exactly as full as it would have been.
+ */
+@Component
+class SolveRateLimiter {
+
+    private final Cache<Long, RateLimitBucket> userBuckets;
+    private final Cache<Long, RateLimitBucket> quizBuckets;
+    private final long userInterval;
+    private final long userBurst;
+    private final long quizInterval;
+    private final long quizBurst;
+    private final boolean enabled;
+
+    @Autowired
+    SolveRateLimiter(MeterRegistry meterRegistry,
+                     @Value("${engine.rate-limit.enabled:true}") boolean enabled,
+                     @Value("${engine.rate-limit.user.per-second:5}") double userRate,
+                     @Value("${engine.rate-limit.user.burst:20}") int userBurst,
+                     @Value("${engine.rate-limit.quiz.per-second:50}") double quizRate,
+                     @Value("${engine.rate-limit.quiz.burst:100}") int quizBurst,
+                     @Value("${engine.rate-limit.max-keys:100000}") long maxKeys) {
+        this.userInterval = interval(userRate);
+        this.userBurst = userInterval * Math.max(userBurst, 1);
+        this.quizInterval = interval(quizRate);
+        this.quizBurst = quizInterval * Math.max(quizBurst, 1);
+        this.enabled = enabled;
+        this.userBuckets = buckets(maxKeys, this.userBurst);
+        this.quizBuckets = buckets(maxKeys, this.quizBurst);
+        CaffeineCacheMetrics.monitor(meterRegistry, userBuckets, "rate-limit-users");
+        CaffeineCacheMetrics.monitor(meterRegistry, quizBuckets, "rate-limit-quizzes");
+    }
+
+    public long acquireForUser(long userId) {
+        return userBuckets.get(userId, id -> new RateLimitBucket())
+                .tryAcquire(System.nanoTime(), userInterval, userBurst);
+    }
+
+    public long acquireForQuiz(long quizId) {
+        return quizBuckets.get(quizId, id -> new RateLimitBucket())
+                .tryAcquire(System.nanoTime(), quizInterval, quizBurst);
+    }
+
+    /**
+     * Charges a batch of answers: one user token per answer, then one token
+     * from the bucket of each quiz, which the caller keeps distinct. A batch
+     * is charged all or nothing; if a quiz bucket rejects it, every token
+     * taken so far is given back.
+     */
+    public void acquireForAnswers(long userId, Collection<Long> quizIds) {
+        if (!enabled || quizIds.isEmpty()) return;
+        long now = System.nanoTime();
+        RateLimitBucket userBucket = userBuckets.get(userId, id -> new RateLimitBucket());
+        long userCost = userInterval * quizIds.size();
+        long wait = userBucket.tryAcquire(now, userCost, userBurst);
+        if (wait > 0) throw new SolveThrottledException("user", wait);
+        List<RateLimitBucket> taken = new ArrayList<>(quizIds.size());
+        for (long quizId : quizIds) {
+            RateLimitBucket quizBucket = quizBuckets.get(quizId, id -> new RateLimitBucket());
+            wait = quizBucket.tryAcquire(now, quizInterval, quizBurst);
+            if (wait > 0) {
+                userBucket.refund(userCost);
+                taken.forEach(bucket -> bucket.refund(quizInterval));
+                throw new SolveThrottledException("quiz", wait);
+            }
+            taken.add(quizBucket);
+        }
+    }
+
+    private static long interval(double perSecond) {
+        if (perSecond <= 0) throw new IllegalArgumentException("Rate limits must be positive");
+        return (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+    }
+
+    private static Cache<Long, RateLimitBucket> buckets(long maxKeys, long refillNanos) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(refillNanos, TimeUnit.NANOSECONDS)
+                .recordStats()
+                .build();
+    }
+}
+
+/**
+ * Throttles {@code POST /api/quizzes/{id}/solve} by user and then by quiz. Runs
+ * right after the security filters, so the user is known but nothing has
+ * touched the database yet; a rejection is a 429 with {@code Retry-After} and
+ * no body. Batches of answers are charged by QuizSolveService once their
+ * quiz ids are known.
+ */
+class SolveRateLimitFilter extends OncePerRequestFilter {
+
+    private static final String QUIZZES = "/api/quizzes/";
+    private static final String SOLVE = "/solve";
+    private static final UrlPathHelper URL_PATH_HELPER = new UrlPathHelper();
+
+    private final SolveRateLimiter rateLimiter;
+    private final QuizMetrics quizMetrics;
+
+    SolveRateLimitFilter(SolveRateLimiter rateLimiter, QuizMetrics quizMetrics) {
+        this.rateLimiter = rateLimiter;
+        this.quizMetrics = quizMetrics;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"POST".equals(request.getMethod()) || quizIdSegment(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof QuizUserPrincipal)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        long wait = rateLimiter.acquireForUser(((QuizUserPrincipal) authentication.getPrincipal()).getId());
+        if (wait > 0) {
+            reject(response, wait, "user");
+            return;
+        }
+        Long quizId = quizId(quizIdSegment(request));
+        if (quizId != null) {
+            wait = rateLimiter.acquireForQuiz(quizId);
+            if (wait > 0) {
+                reject(response, wait, "quiz");
+                return;
+            }
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private void reject(HttpServletResponse response, long waitNanos, String limit) {
+        quizMetrics.throttled(limit);
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter(waitNanos));
+    }
+
+    static String retryAfter(long waitNanos) {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        return String.valueOf(Math.max(1, (waitNanos + second - 1) / second));
+    }
+
+    /**
+     * The {@code <id>} of {@code /api/quizzes/<id>/solve}, or null for any other
+     * path, including the bulk endpoint. The path is read the way Spring MVC
+     * matches it: decoded, without path parameters and without trailing
+     * slashes, so no spelling of the URL reaches the handler unthrottled.
+     */
+    private static String quizIdSegment(HttpServletRequest request) {
+        String path = URL_PATH_HELPER.getPathWithinApplication(request);
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') end--;
+        path = path.substring(0, end);
+        if (!path.startsWith(QUIZZES) || !path.endsWith(SOLVE)) return null;
+        String segment = path.substring(QUIZZES.length(), Math.max(QUIZZES.length(), path.length() - SOLVE.length()));
+        return segment.isEmpty() || segment.indexOf('/') >= 0 ? null : segment;
+    }
+
+    /**
+     * Parses the segment as the handler's {@code long} path variable is bound,
+     * or returns null where binding would fail too.
+     */
+    private static Long quizId(String segment) {
+        try {
+            return NumberUtils.parseNumber(segment, Long.class);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
+
+/**
+ * Turns a throttled batch of answers into the same response the filter gives.
+ */
+@ControllerAdvice
+class SolveRateLimitAdvice {
+
+    @Autowired
+    private QuizMetrics quizMetrics;
+
+    @ExceptionHandler(SolveThrottledException.class)
+    public ResponseEntity<Void> throttled(SolveThrottledException e) {
+        quizMetrics.throttled(e.getLimit());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, SolveRateLimitFilter.retryAfter(e.getWaitNanos()))
+                .build();
+    }
+}
+
+@Configuration
+@ConditionalOnProperty(name = "engine.rate-limit.enabled", havingValue = "true", matchIfMissing = true)
+class SolveRateLimitConfig {
+
+    @Bean
+    public FilterRegistrationBean<SolveRateLimitFilter> solveRateLimitFilter(SolveRateLimiter rateLimiter,
+                                                                            QuizMetrics quizMetrics) {
+        FilterRegistrationBean<SolveRateLimitFilter> registration =
+                new FilterRegistrationBean<>(new SolveRateLimitFilter(rateLimiter, quizMetrics));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        return registration;
+    }
+}
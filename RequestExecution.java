@@ -0,0 +1,162 @@
+package engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opt-in request execution on virtual threads ({@code engine.execution.mode=virtual}).
+ * Tomcat hands every request to a fresh virtual thread, so the blocking JPA
+ * calls behind it no longer tie up a pooled worker. The executor is looked up
+ * reflectively because the build still targets Java 11; on older JDKs
+ * Tomcat keeps its own worker pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "engine.execution.mode", havingValue = "virtual")
+class VirtualThreadExecutionConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadExecutionConfig.class);
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        return protocolHandler -> {
+            if (executor != null) protocolHandler.setExecutor(executor);
+        };
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            log.info("Handling requests on virtual threads");
+            return executor;
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            log.warn("Virtual threads are not available on Java {}, keeping the Tomcat worker pool",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+}
+
+/**
+ * Caps the number of connections handed out at once. Callers over the limit
+ * wait up to the acquire timeout and then fail, instead of piling onto the pool
+ * and the H2 file lock. Matters most with virtual threads, where the number
+ * of concurrent requests is no longer bounded by the worker pool.
+ */
+class ConcurrencyLimitingDataSource extends DelegatingDataSource {
+
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final long acquireTimeoutMillis;
+
+    ConcurrencyLimitingDataSource(DataSource targetDataSource, int maxConcurrency, long acquireTimeoutMillis) {
+        super(targetDataSource);
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxConcurrency = maxConcurrency;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        return limited(obtain(() -> super.getConnection()));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        return limited(obtain(() -> super.getConnection(username, password)));
+    }
+
+    private void acquire() throws SQLException {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(String.format(
+                        "All %d database permits are in use, gave up after %d ms",
+                        maxConcurrency, acquireTimeoutMillis));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database permit", e);
+        }
+    }
+
+    private Connection obtain(ConnectionSupplier supplier) throws SQLException {
+        try {
+            return supplier.get();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps the connection so that closing it gives the permit back, once.
+     */
+    private Connection limited(Connection connection) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                            permits.release();
+                        }
+                    }
+                });
+    }
+
+    private interface ConnectionSupplier {
+        Connection get() throws SQLException;
+    }
+}
+
+/**
+ * Puts a {@link ConcurrencyLimitingDataSource} in front of the application's
+ * DataSource when {@code engine.datasource.max-concurrency} is positive.
+ */
+@Configuration
+class DataSourceConcurrencyConfig {
+
+    @Bean
+    public static BeanPostProcessor concurrencyLimitingDataSourcePostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                int maxConcurrency = environment.getProperty("engine.datasource.max-concurrency", Integer.class, 0);
+                if (!(bean instanceof DataSource) || bean instanceof ConcurrencyLimitingDataSource
+                        || maxConcurrency <= 0) {
+                    return bean;
+                }
+                long acquireTimeoutMillis = environment.getProperty(
+                        "engine.datasource.acquire-timeout-ms", Long.class, 5000L);
+                return new ConcurrencyLimitingDataSource((DataSource) bean, maxConcurrency, acquireTimeoutMillis);
+            }
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package engine;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets through one in every {@code every} events of one logger and drops
+ * the rest before logback builds an event for them. Used by the prod
+ * profile to keep a sample of {@code org.hibernate.SQL} in the log.
+ */
+public class SampledLoggerTurboFilter extends TurboFilter {
+
+    private final AtomicLong events = new AtomicLong();
+    private String loggerName;
+    private long every = 100;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level,
+                              String format, Object[] params, Throwable t) {
+        // a null format is an isXxxEnabled() check, which must not use up a sample
+        if (format == null || !logger.getName().equals(loggerName)) return FilterReply.NEUTRAL;
+        if (!level.isGreaterOrEqual(logger.getEffectiveLevel())) return FilterReply.NEUTRAL;
+        return events.getAndIncrement() % every == 0 ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    public void setLoggerName(String loggerName) {
+        this.loggerName = loggerName;
+    }
+
+    public void setEvery(long every) {
+        this.every = Math.max(every, 1);
+    }
+}
@@ -0,0 +1,335 @@
+package engine;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+class SolveEvent {
+    private final long quizId;
+    private final long userId;
+    private final boolean success;
+    private final LocalDateTime at;
+    private final long ownerId;
+
+    SolveEvent(long quizId, long ownerId, long userId, boolean success, LocalDateTime at) {
+        this.quizId = quizId;
+        this.ownerId = ownerId;
+        this.userId = userId;
+        this.success = success;
+        this.at = at;
+    }
+
+    public long getQuizId() {
+        return quizId;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getAt() {
+        return at.toString();
+    }
+
+    long ownerId() {
+        return ownerId;
+    }
+}
+
+/**
+ * Fans solve events out to server-sent event streams. Graders only put the
+ * event on a bounded queue; one dispatcher thread serializes it once and hands
+ * the text to every matching subscriber, found through per-quiz and per-user
+ * indexes. Solvers are only ever shown to the owner of the quiz and to
+ * themselves. Each subscriber has a small ring buffer which drops its oldest
+ * events when the client can't keep up, and a few writer threads drain the
+ * buffers, telling the client how many events it missed. Memory therefore
+ * grows with the number of subscribers times the buffer size, never with
+ * the event rate.
+ */
+@Component
+class SolveEventPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(SolveEventPublisher.class);
+    private static final String TOO_MANY_SUBSCRIBERS = "Too many event subscribers, try again later!";
+
+    private final BlockingQueue<SolveEvent> events;
+    private final Map<Long, Set<Subscriber>> byQuiz = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Subscriber>> byUser = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final ObjectMapper objectMapper;
+    private final Counter droppedEvents;
+    private final int bufferSize;
+    private final int maxSubscribers;
+    private final long timeoutMillis;
+    private final ExecutorService writers;
+    private Thread dispatcher;
+
+    @Autowired
+    SolveEventPublisher(ObjectMapper objectMapper,
+                        MeterRegistry meterRegistry,
+                        @Value("${engine.events.queue-capacity:10000}") int queueCapacity,
+                        @Value("${engine.events.buffer-size:32}") int bufferSize,
+                        @Value("${engine.events.max-subscribers:10000}") int maxSubscribers,
+                        @Value("${engine.events.timeout-ms:1800000}") long timeoutMillis,
+                        @Value("${engine.events.writer-threads:2}") int writerThreads) {
+        this.objectMapper = objectMapper;
+        this.events = new ArrayBlockingQueue<>(queueCapacity);
+        this.bufferSize = bufferSize;
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger writerNumber = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writerThreads, task -> {
+            Thread thread = new Thread(task, "solve-event-writer-" + writerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.droppedEvents = Counter.builder("quiz.events.dropped")
+                .description("Solve events dropped because the dispatcher or a subscriber fell behind")
+                .register(meterRegistry);
+        Gauge.builder("quiz.events.subscribers", subscribers, AtomicInteger::get)
+                .description("Connected solve event streams")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        dispatcher = new Thread(this::dispatch, "solve-event-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        dispatcher.interrupt();
+        writers.shutdownNow();
+        forEachSubscriber(subscriber -> subscriber.emitter.complete());
+    }
+
+    /**
+     * Never blocks the grading thread; the event is dropped if the dispatcher is behind.
+     */
+    public void publish(SolveEvent event) {
+        if (subscribers.get() == 0) return;
+        if (!events.offer(event)) droppedEvents.increment();
+    }
+
+    /**
+     * Events of one quiz if {@code quizId} is given, else those on the quizzes
+     * of {@code userId} and the solves {@code userId} made.
+     */
+    public SseEmitter subscribe(Long quizId, long userId) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new TooManySubscribersException(TOO_MANY_SUBSCRIBERS);
+        }
+        Subscriber subscriber = new Subscriber(new SseEmitter(timeoutMillis), bufferSize);
+        if (quizId != null) join(byQuiz, quizId, subscriber);
+        else join(byUser, userId, subscriber);
+
+        AtomicBoolean left = new AtomicBoolean();
+        Runnable unsubscribe = () -> {
+            if (!left.compareAndSet(false, true)) return;
+            if (quizId != null) leave(byQuiz, quizId, subscriber);
+            else leave(byUser, userId, subscriber);
+            subscribers.decrementAndGet();
+        };
+        subscriber.emitter.onCompletion(unsubscribe);
+        subscriber.emitter.onTimeout(unsubscribe);
+        subscriber.emitter.onError(error -> unsubscribe.run());
+        return subscriber.emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${engine.events.heartbeat-ms:15000}")
+    public void heartbeat() {
+        forEachSubscriber(subscriber -> {
+            subscriber.heartbeat = true;
+            schedule(subscriber);
+        });
+    }
+
+    private static void join(Map<Long, Set<Subscriber>> groups, long key, Subscriber subscriber) {
+        groups.compute(key, (id, group) -> {
+            Set<Subscriber> joined = group != null ? group : ConcurrentHashMap.newKeySet();
+            joined.add(subscriber);
+            return joined;
+        });
+    }
+
+    private static void leave(Map<Long, Set<Subscriber>> groups, long key, Subscriber subscriber) {
+        groups.computeIfPresent(key, (id, group) -> {
+            group.remove(subscriber);
+            return group.isEmpty() ? null : group;
+        });
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            SolveEvent event;
+            try {
+                event = events.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            String data;
+            try {
+                data = objectMapper.writeValueAsString(event);
+            } catch (JsonProcessingException e) {
+                log.warn("Unserializable solve event for quiz {}", event.getQuizId(), e);
+                continue;
+            }
+            deliver(byQuiz.getOrDefault(event.getQuizId(), Collections.emptySet()), data);
+            deliver(byUser.getOrDefault(event.ownerId(), Collections.emptySet()), data);
+            if (event.getUserId() != event.ownerId()) {
+                deliver(byUser.getOrDefault(event.getUserId(), Collections.emptySet()), data);
+            }
+        }
+    }
+
+    private void deliver(Set<Subscriber> group, String data) {
+        for (Subscriber subscriber : group) {
+            if (subscriber.offer(data)) droppedEvents.increment();
+            schedule(subscriber);
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                writers.execute(() -> write(subscriber));
+            } catch (RuntimeException e) {
+                subscriber.scheduled.set(false);
+            }
+        }
+    }
+
+    private void write(Subscriber subscriber) {
+        try {
+            while (true) {
+                int missed = subscriber.takeMissed();
+                if (missed > 0) {
+                    subscriber.emitter.send(SseEmitter.event().name("dropped").data(Integer.toString(missed)));
+                }
+                String data = subscriber.poll();
+                if (data == null) break;
+                subscriber.emitter.send(SseEmitter.event().name("solve").data(data));
+            }
+            if (subscriber.heartbeat) {
+                subscriber.heartbeat = false;
+                subscriber.emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+        } catch (IOException | IllegalStateException e) {
+            subscriber.emitter.completeWithError(e);
+        } finally {
+            subscriber.scheduled.set(false);
+        }
+        if (subscriber.hasPending()) schedule(subscriber);
+    }
+
+    private void forEachSubscriber(Consumer<Subscriber> action) {
+        byQuiz.values().forEach(group -> group.forEach(action));
+        byUser.values().forEach(group -> group.forEach(action));
+    }
+
+    private static final class Subscriber {
+        final SseEmitter emitter;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean heartbeat;
+        private final String[] buffer;
+        private int head;
+        private int size;
+        private int missed;
+
+        Subscriber(SseEmitter emitter, int bufferSize) {
+            this.emitter = emitter;
+            this.buffer = new String[Math.max(bufferSize, 1)];
+        }
+
+        /**
+         * Buffers the event, returning true if the oldest buffered one had to make room for it.
+         */
+        synchronized boolean offer(String data) {
+            boolean dropped = size == buffer.length;
+            if (dropped) {
+                head = (head + 1) % buffer.length;
+                size--;
+                missed++;
+            }
+            buffer[(head + size) % buffer.length] = data;
+            size++;
+            return dropped;
+        }
+
+        synchronized String poll() {
+            if (size == 0) return null;
+            String data = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            size--;
+            return data;
+        }
+
+        synchronized int takeMissed() {
+            int taken = missed;
+            missed = 0;
+            return taken;
+        }
+
+        synchronized boolean hasPending() {
+            return size > 0 || missed > 0;
+        }
+    }
+}
+
+@RestController
+class SolveEventController {
+
+    @Autowired
+    private SolveEventPublisher solveEventPublisher;
+
+    @Autowired
+    private QuizAccessService quizAccessService;
+
+    /**
+     * Solves of one quiz for its owner, or without {@code quizId} the solves
+     * on the caller's quizzes and the caller's own.
+     */
+    @GetMapping(value = "/api/quizzes/events", produces = "text/event-stream")
+    public SseEmitter streamSolveEvents(@RequestParam(required = false) Long quizId) {
+        long userId = QuizUserPrincipal.currentId();
+        if (quizId != null) quizAccessService.getOwnedSnapshot(quizId, userId);
+        return solveEventPublisher.subscribe(quizId, userId);
+    }
+}
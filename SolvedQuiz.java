@@ -1,21 +1,70 @@
 package engine;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.annotation.Order;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
+import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.persistence.*;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_solved_quiz_user_latest", columnList = "solvedBy DESC, completedAt DESC, solvedQuizId DESC"),
+        @Index(name = "idx_solved_quiz_quiz_completed_at", columnList = "quizId, completedAt, solvedQuizId")})
 public class SolvedQuiz {
     @Id
     @Column(name = "solvedQuizId")
@@ -38,6 +87,10 @@ public class SolvedQuiz {
         return completedAt.toString();
     }
 
+    LocalDateTime completedAt() {
+        return completedAt;
+    }
+
     public long getQuizId() {
         return quizId;
     }
@@ -70,23 +123,567 @@ public class SolvedQuiz {
 @Repository
 interface SolvedQuizRepository extends JpaRepository<SolvedQuiz, Long> {
     public Page<SolvedQuiz> findAllByUserId(long userId, Pageable pageable);
+
+    /**
+     * The user's latest completions first. H2 only reads an index in ORDER BY
+     * order when the order starts at its first column, so the queries below
+     * order by solvedBy as well, which the WHERE clause fixes anyway.
+     */
+    @Query("select s from SolvedQuiz s where s.userId = :userId " +
+            "order by s.userId desc, s.completedAt desc, s.id desc")
+    public List<SolvedQuiz> findLatestByUserId(@Param("userId") long userId, Pageable pageable);
+
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("select s from SolvedQuiz s where s.userId = :userId " +
+            "order by s.userId desc, s.completedAt desc, s.id desc")
+    public Stream<SolvedQuiz> streamLatestByUserId(@Param("userId") long userId);
+
+    @Query("select s from SolvedQuiz s where s.userId = :userId and s.completedAt <= :completedAt " +
+            "and (s.completedAt < :completedAt or s.id < :id) " +
+            "order by s.userId desc, s.completedAt desc, s.id desc")
+    public List<SolvedQuiz> findByUserIdAfter(@Param("userId") long userId,
+                                              @Param("completedAt") LocalDateTime completedAt,
+                                              @Param("id") long id,
+                                              Pageable pageable);
+
+    @Query("select s.userId, count(s) from SolvedQuiz s group by s.userId")
+    public List<Object[]> countCompletionsByUser();
+
+    @Query("select distinct s.quizId from SolvedQuiz s where s.userId = :userId")
+    public List<Long> findSolvedQuizIds(@Param("userId") long userId);
 }
 
 @Service
 class SolvedQuizService {
 
+    private final String INVALID_PAGE = "The page number must not be negative!";
+    private final String INVALID_PAGE_SIZE = "The page size must be between 1 and %d!";
+    private final String INVALID_CURSOR = "The page cursor is invalid!";
+
     @Autowired
     private SolvedQuizRepository solvedQuizRepository;
 
+    @Value("${engine.completed.max-page-size:100}")
+    private int maxPageSize;
+
     public Page<SolvedQuiz> getAllSolvedQuizzesWithPagination(Integer page,
                                                   Integer pageSize,
                                                   long userId) {
+        if (page < 0) throw new InvalidPageRequestException(INVALID_PAGE);
+        checkPageSize(pageSize);
         Pageable paging = PageRequest.of(page, pageSize,
-                Sort.by("completedAt").descending());
+                Sort.by("userId", "completedAt", "id").descending());
 
         Page<SolvedQuiz> pagedResult = this.solvedQuizRepository.findAllByUserId(userId, paging);
 
         return pagedResult;
     }
 
+    public CursorPage<SolvedQuiz> getSolvedQuizzesAfterCursor(String cursor,
+                                                              Integer pageSize,
+                                                              long userId) {
+        checkPageSize(pageSize);
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+
+        List<SolvedQuiz> solvedQuizzes;
+        if (cursor.isEmpty()) {
+            solvedQuizzes = this.solvedQuizRepository
+                    .findLatestByUserId(userId, limit);
+        } else {
+            String[] position = CursorCodec.decode(cursor, 2);
+            LocalDateTime completedAt;
+            try {
+                completedAt = LocalDateTime.parse(position[0]);
+            } catch (DateTimeParseException e) {
+                throw new InvalidPageRequestException(INVALID_CURSOR);
+            }
+            solvedQuizzes = this.solvedQuizRepository
+                    .findByUserIdAfter(userId, completedAt, CursorCodec.decodeLong(position[1]), limit);
+        }
+
+        if (solvedQuizzes.size() <= pageSize) return new CursorPage<>(solvedQuizzes, null);
+        List<SolvedQuiz> page = solvedQuizzes.subList(0, pageSize);
+        SolvedQuiz last = page.get(pageSize - 1);
+        return new CursorPage<>(page,
+                CursorCodec.encode(last.completedAt().toString(), String.valueOf(last.getId())));
+    }
+
+    private void checkPageSize(Integer pageSize) {
+        if (pageSize < 1 || pageSize > maxPageSize) {
+            throw new InvalidPageRequestException(String.format(INVALID_PAGE_SIZE, maxPageSize));
+        }
+    }
+}
+
+enum SolvedQuizExportFormat {
+    NDJSON("ndjson", "application/x-ndjson"),
+    CSV("csv", "text/csv");
+
+    private final String extension;
+    private final MediaType mediaType;
+
+    SolvedQuizExportFormat(String extension, String mediaType) {
+        this.extension = extension;
+        this.mediaType = MediaType.parseMediaType(mediaType);
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public static SolvedQuizExportFormat of(String format) {
+        for (SolvedQuizExportFormat exportFormat : values()) {
+            if (exportFormat.extension.equalsIgnoreCase(format)) return exportFormat;
+        }
+        throw new InvalidPageRequestException(String.format("Unsupported export format '%s'!", format));
+    }
+}
+
+/**
+ * Writes a user's whole completion history straight from a forward-only
+ * cursor to the response. Rows are detached as soon as they are written,
+ * so memory stays flat, and the connection is held only while streaming.
+ * A client disconnect fails the next write, which closes the cursor.
+ */
+@Service
+class SolvedQuizExportService {
+
+    @Autowired
+    private SolvedQuizRepository solvedQuizRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public StreamingResponseBody export(long userId, SolvedQuizExportFormat format) {
+        return outputStream -> {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setReadOnly(true);
+            try {
+                transactionTemplate.execute(status -> {
+                    writeRows(userId, format, outputStream);
+                    return null;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+    }
+
+    private void writeRows(long userId, SolvedQuizExportFormat format, OutputStream outputStream) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        try (Stream<SolvedQuiz> solvedQuizzes =
+                     solvedQuizRepository.streamLatestByUserId(userId)) {
+            if (format == SolvedQuizExportFormat.CSV) writer.write("id,completedAt\n");
+            Iterator<SolvedQuiz> rows = solvedQuizzes.iterator();
+            while (rows.hasNext()) {
+                SolvedQuiz solvedQuiz = rows.next();
+                if (format == SolvedQuizExportFormat.CSV) {
+                    writer.write(solvedQuiz.getQuizId() + "," + solvedQuiz.getCompletedAt() + "\n");
+                } else {
+                    writer.write(objectMapper.writeValueAsString(solvedQuiz));
+                    writer.write('\n');
+                }
+                entityManager.detach(solvedQuiz);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+@Service
+class QuizSolveService {
+
+    private final String QUIZ_NOT_FOUND = "There is no such quiz!";
+    private final String TOO_MANY_ANSWERS = "At most %d answers can be submitted at once!";
+    private final String DUPLICATE_ANSWER = "Quiz %d is answered more than once!";
+
+    @Autowired
+    private QuizAccessService quizAccessService;
+
+    @Autowired
+    private QuizCache quizCache;
+
+    @Autowired
+    private SolvedQuizWriter solvedQuizWriter;
+
+    @Autowired
+    private QuizStatistics quizStatistics;
+
+    @Autowired
+    private QuizMetrics quizMetrics;
+
+    @Autowired
+    private Leaderboard leaderboard;
+
+    @Autowired
+    private SolveEventPublisher solveEventPublisher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private SolveRateLimiter solveRateLimiter;
+
+    @Value("${engine.bulk.max-answers:1000}")
+    private int maxAnswers;
+
+    /**
+     * Reads a JSON array of answers one element at a time, giving up as soon
+     * as there are more than the bulk endpoint accepts.
+     */
+    public List<BulkAnswer> readAnswers(InputStream body) throws IOException {
+        List<BulkAnswer> answers = new ArrayList<>();
+        try (MappingIterator<BulkAnswer> values = objectMapper.readerFor(BulkAnswer.class).readValues(body)) {
+            while (values.hasNextValue()) {
+                if (answers.size() == maxAnswers) {
+                    throw new InvalidQuizException(String.format(TOO_MANY_ANSWERS, maxAnswers));
+                }
+                answers.add(values.nextValue());
+            }
+        } catch (JsonProcessingException e) {
+            throw new InvalidQuizException(e.getOriginalMessage());
+        }
+        return answers;
+    }
+
+    public QuizResult solve(long quizId, int answer, long userId) {
+        QuizSnapshot quiz = quizAccessService.getReadableQuiz(quizId);
+        boolean success = quizMetrics.time(QuizMetrics.Stage.GRADING, () -> quiz.getAnswer() == answer);
+        quizMetrics.answered(success);
+        quizStatistics.record(quizId, userId, success);
+        LocalDateTime now = LocalDateTime.now();
+        solveEventPublisher.publish(new SolveEvent(quizId, quiz.getOwnerId(), userId, success, now));
+        if (success) {
+            solvedQuizWriter.enqueue(solved(quizId, userId, now));
+            return new QuizResult(true);
+        }
+        else return new QuizResult(false);
+    }
+
+    /**
+     * Grades a batch of answers, each to a different quiz, after charging the
+     * rate limits once per answer. A batch larger than the user's burst is
+     * admitted against a full bucket and paid back at the user's rate.
+     */
+    public List<BulkQuizResult> solveAll(List<BulkAnswer> answers, long userId) {
+        if (answers.size() > maxAnswers) {
+            throw new InvalidQuizException(String.format(TOO_MANY_ANSWERS, maxAnswers));
+        }
+        Set<Long> quizIds = new LinkedHashSet<>();
+        for (BulkAnswer answer : answers) {
+            if (!quizIds.add(answer.getQuizId())) {
+                throw new InvalidQuizException(String.format(DUPLICATE_ANSWER, answer.getQuizId()));
+            }
+        }
+        solveRateLimiter.acquireForAnswers(userId, quizIds);
+        LocalDateTime completedAt = LocalDateTime.now();
+        List<BulkQuizResult> results = new ArrayList<>(answers.size());
+        List<SolvedQuiz> solvedQuizzes = new ArrayList<>();
+        Map<Long, QuizSnapshot> snapshots = quizCache.getAll(quizIds);
+        for (BulkAnswer answer : answers) {
+            QuizSnapshot quiz = snapshots.get(answer.getQuizId());
+            if (quiz == null) {
+                results.add(new BulkQuizResult(answer.getQuizId(), QUIZ_NOT_FOUND));
+                continue;
+            }
+            int expected = quiz.getAnswer();
+            boolean success = quizMetrics.time(QuizMetrics.Stage.GRADING, () -> expected == answer.getAnswer());
+            quizMetrics.answered(success);
+            quizStatistics.record(answer.getQuizId(), userId, success);
+            solveEventPublisher.publish(
+                    new SolveEvent(answer.getQuizId(), quiz.getOwnerId(), userId, success, completedAt));
+            if (success) solvedQuizzes.add(solved(answer.getQuizId(), userId, completedAt));
+            results.add(new BulkQuizResult(answer.getQuizId(), success));
+        }
+        if (!solvedQuizzes.isEmpty()) solvedQuizWriter.writeBatch(solvedQuizzes);
+        return results;
+    }
+
+    /**
+     * Updates the in-memory views of who solved what and returns the record to store.
+     */
+    private SolvedQuiz solved(long quizId, long userId, LocalDateTime completedAt) {
+        leaderboard.solved(userId);
+        SolvedQuiz solvedQuiz = new SolvedQuiz();
+        solvedQuiz.setUserId(userId);
+        solvedQuiz.setQuizId(quizId);
+        solvedQuiz.setCompletedAt(completedAt);
+        return solvedQuiz;
+    }
+}
+
+/**
+ * Takes completion records off the request thread and inserts them in JDBC
+ * batches, flushing whenever a batch fills up or the flush interval passes.
+ * When the queue is full the caller writes its own record (caller-runs),
+ * and whatever is still queued on shutdown is written before the context closes.
+ * A record is either queued while the writer runs or written by its caller:
+ * shutdown takes the handoff lock, so no record is queued after the last drain.
+ * A batch is stored in one transaction and retried as a whole when it fails.
+ * First solvers and solved-quiz sets are updated from a batch only once it
+ * is stored, so a list or set loaded in the meantime can't miss a record
+ * that was still queued.
+ */
+@Component
+class SolvedQuizWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(SolvedQuizWriter.class);
+    private static final String INSERT_SOLVED_QUIZ =
+            "insert into solved_quiz (solved_by, quiz_id, completed_at) values (?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final QuizMetrics quizMetrics;
+    private final FirstSolvers firstSolvers;
+    private final SolvedQuizSets solvedQuizSets;
+    private final BlockingQueue<SolvedQuiz> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final int maxAttempts;
+    private final Thread worker;
+    private final ReadWriteLock handoff = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    @Autowired
+    SolvedQuizWriter(JdbcTemplate jdbcTemplate,
+                     PlatformTransactionManager transactionManager,
+                     QuizMetrics quizMetrics,
+                     FirstSolvers firstSolvers,
+                     SolvedQuizSets solvedQuizSets,
+                     @Value("${engine.solved-quiz-writer.queue-capacity:10000}") int queueCapacity,
+                     @Value("${engine.solved-quiz-writer.batch-size:200}") int batchSize,
+                     @Value("${engine.solved-quiz-writer.flush-interval-ms:100}") long flushIntervalMillis,
+                     @Value("${engine.solved-quiz-writer.offer-timeout-ms:50}") long offerTimeoutMillis,
+                     @Value("${engine.solved-quiz-writer.max-attempts:3}") int maxAttempts) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.quizMetrics = quizMetrics;
+        this.firstSolvers = firstSolvers;
+        this.solvedQuizSets = solvedQuizSets;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.worker = new Thread(this::run, "solved-quiz-writer");
+    }
+
+    @PostConstruct
+    void start() {
+        this.worker.start();
+    }
+
+    public void enqueue(SolvedQuiz solvedQuiz) {
+        boolean queued = false;
+        handoff.readLock().lock();
+        try {
+            if (running) queued = queue.offer(solvedQuiz, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            handoff.readLock().unlock();
+        }
+        if (!queued) {
+            writeBatch(Collections.singletonList(solvedQuiz));
+        }
+    }
+
+    public void writeBatch(List<SolvedQuiz> batch) {
+        quizMetrics.time(QuizMetrics.Stage.INSERT, () -> transactionTemplate.executeWithoutResult(status ->
+            jdbcTemplate.batchUpdate(INSERT_SOLVED_QUIZ, batch, batch.size(), (statement, solvedQuiz) -> {
+                statement.setLong(1, solvedQuiz.getUserId());
+                statement.setLong(2, solvedQuiz.getQuizId());
+                statement.setTimestamp(3, Timestamp.valueOf(solvedQuiz.completedAt()));
+            })));
+        for (SolvedQuiz solvedQuiz : batch) {
+            firstSolvers.solved(solvedQuiz.getQuizId(), solvedQuiz.getUserId(), solvedQuiz.completedAt());
+            solvedQuizSets.solved(solvedQuiz.getUserId(), solvedQuiz.getQuizId());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        handoff.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            handoff.writeLock().unlock();
+        }
+        worker.join();
+        List<SolvedQuiz> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+    }
+
+    private void run() {
+        List<SolvedQuiz> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SolvedQuiz first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) break;
+                    SolvedQuiz next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Retries a failed batch, then writes its records one at a time so that a
+     * single bad record can't take the rest of the batch down with it.
+     */
+    private void flush(List<SolvedQuiz> batch) {
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                writeBatch(batch);
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Failed to write {} completed quizzes (attempt {} of {})",
+                        batch.size(), attempt, maxAttempts, e);
+            }
+            if (attempt < maxAttempts && !backOff(attempt)) break;
+        }
+        for (SolvedQuiz solvedQuiz : batch) {
+            try {
+                writeBatch(Collections.singletonList(solvedQuiz));
+            } catch (RuntimeException e) {
+                log.error("Dropped the completion of quiz {} by user {} at {}",
+                        solvedQuiz.getQuizId(), solvedQuiz.getUserId(), solvedQuiz.completedAt(), e);
+            }
+        }
+    }
+
+    private boolean backOff(int attempt) {
+        try {
+            Thread.sleep(flushIntervalMillis * attempt);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
+
+/**
+ * Deletes the completion records of deleted quizzes, which have no foreign
+ * key to cascade from. Quizzes deleted here are queued by {@link QuizChanges};
+ * a periodic sweep, also run at startup, finds any others with an anti-join
+ * over the (quiz_id, ...) index. Rows go in batches of their own transaction,
+ * at most a few batches per run so the shared scheduler thread is never held
+ * for long, and every deleted row is taken off its user's leaderboard total.
+ */
+@Component
+class SolvedQuizPurge {
+
+    private static final Logger log = LoggerFactory.getLogger(SolvedQuizPurge.class);
+    private static final String ORPHANED_QUIZ_IDS =
+            "select distinct s.quiz_id from solved_quiz s " +
+            "where not exists (select 1 from quiz q where q.quizid = s.quiz_id)";
+    private static final String SOLVED_BY_QUIZ =
+            "select solved_quiz_id, solved_by from solved_quiz where quiz_id = ? limit ?";
+    private static final String DELETE_SOLVED_QUIZ = "delete from solved_quiz where solved_quiz_id = ?";
+
+    private final NavigableSet<Long> pending = new ConcurrentSkipListSet<>();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Leaderboard leaderboard;
+    private final Counter purgedRows;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+
+    @Autowired
+    SolvedQuizPurge(JdbcTemplate jdbcTemplate,
+                    PlatformTransactionManager transactionManager,
+                    Leaderboard leaderboard,
+                    MeterRegistry meterRegistry,
+                    @Value("${engine.solved-quiz-purge.batch-size:1000}") int batchSize,
+                    @Value("${engine.solved-quiz-purge.max-batches-per-run:10}") int maxBatchesPerRun) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.leaderboard = leaderboard;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.purgedRows = Counter.builder("quiz.solved.purged")
+                .description("Completion records deleted along with their quiz")
+                .register(meterRegistry);
+    }
+
+    public void purge(long quizId) {
+        pending.add(quizId);
+    }
+
+    @Scheduled(fixedDelayString = "${engine.solved-quiz-purge.sweep-interval-ms:3600000}")
+    public void sweep() {
+        List<Long> orphaned = jdbcTemplate.queryForList(ORPHANED_QUIZ_IDS, Long.class);
+        if (orphaned.isEmpty()) return;
+        log.info("Found completion records of {} deleted quizzes", orphaned.size());
+        pending.addAll(orphaned);
+    }
+
+    @Scheduled(fixedDelayString = "${engine.solved-quiz-purge.interval-ms:1000}")
+    public synchronized void run() {
+        int batches = 0;
+        for (Long quizId; batches < maxBatchesPerRun && (quizId = pending.pollFirst()) != null; ) {
+            try {
+                int deleted;
+                do {
+                    deleted = deleteBatch(quizId);
+                    batches++;
+                } while (deleted == batchSize && batches < maxBatchesPerRun);
+                if (deleted == batchSize) pending.add(quizId);
+            } catch (RuntimeException e) {
+                log.error("Failed to delete the completion records of quiz {}", quizId, e);
+                pending.add(quizId);
+                return;
+            }
+        }
+    }
+
+    private int deleteBatch(long quizId) {
+        List<Object[]> rows = jdbcTemplate.query(SOLVED_BY_QUIZ,
+                (resultSet, rowNumber) -> new Object[]{resultSet.getLong(1), resultSet.getLong(2)},
+                quizId, batchSize);
+        if (rows.isEmpty()) return 0;
+        Map<Long, Long> completionsByUser = new HashMap<>();
+        transactionTemplate.execute(status -> {
+            int[] counts = jdbcTemplate.batchUpdate(DELETE_SOLVED_QUIZ,
+                    rows.stream().map(row -> new Object[]{row[0]}).collect(Collectors.toList()));
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) completionsByUser.merge((Long) rows.get(i)[1], 1L, Long::sum);
+            }
+            return null;
+        });
+        completionsByUser.forEach(leaderboard::unsolved);
+        purgedRows.increment(completionsByUser.values().stream().mapToLong(Long::longValue).sum());
+        return rows.size();
+    }
 }
@@ -1,21 +1,24 @@
 package engine;
 
-import com.fasterxml.jackson.annotation.JsonIdentityInfo;
-import com.fasterxml.jackson.annotation.JsonIdentityReference;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.ObjectIdGenerators;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.repository.CrudRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -38,7 +41,9 @@ import java.time.LocalDateTime;
 import java.util.*;
 
 @Entity
-@Table(name = "AppUsers")
+@Table(name = "AppUsers",
+       uniqueConstraints = @UniqueConstraint(name = "uk_app_users_username", columnNames = "username"))
+@EntityListeners(UserCredentialListener.class)
 public class User implements UserDetails {
     @Id
     @Column(name = "user_id")
@@ -54,11 +59,6 @@ public class User implements UserDetails {
 
     private final boolean enabled = true;
 
-    @OneToMany(mappedBy = "user", cascade = CascadeType.ALL)
-    @JsonIdentityInfo(generator= ObjectIdGenerators.PropertyGenerator.class, property="id")
-    @JsonIdentityReference(alwaysAsId=true)
-    private List<Quiz> quizzes = new ArrayList<>();
-
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
         return Arrays.asList(new SimpleGrantedAuthority("USER"));
@@ -108,13 +108,78 @@ public class User implements UserDetails {
     public void setUsername(String userName) {
         this.username = userName;
     }
+}
+
+/**
+ * What the security context holds for an authenticated user: the id and
+ * credentials copied out of {@link User} when the user is loaded, so request
+ * handlers get the current user id without a query and nothing keeps a
+ * reference to the entity.
+ */
+final class QuizUserPrincipal implements UserDetails {
+
+    private static final String NO_USER = "There is no authenticated user!";
+    private static final List<GrantedAuthority> AUTHORITIES =
+            Collections.singletonList(new SimpleGrantedAuthority("USER"));
+
+    private final long id;
+    private final String username;
+    private final String password;
+
+    public QuizUserPrincipal(long id, String username, String password) {
+        this.id = id;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Id of the user authenticated for the current request.
+     */
+    static long currentId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof QuizUserPrincipal) {
+            return ((QuizUserPrincipal) authentication.getPrincipal()).getId();
+        }
+        throw new UsernameNotFoundException(NO_USER);
+    }
+
+    public long getId() {
+        return id;
+    }
 
-    public List<Quiz> getQuizzes() {
-        return quizzes;
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return AUTHORITIES;
     }
 
-    public void setQuizzes(List<Quiz> quizzes) {
-        this.quizzes = quizzes;
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public boolean isAccountNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isAccountNonLocked() {
+        return true;
+    }
+
+    @Override
+    public boolean isCredentialsNonExpired() {
+        return true;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
     }
 }
 
@@ -128,18 +193,27 @@ class SecurityConfig extends WebSecurityConfigurerAdapter {
     @Autowired
     UserDetailsService userDetailsService;
 
+    @Autowired
+    VerifiedCredentialCache credentialCache;
+
+    @Autowired
+    QuizMetrics quizMetrics;
+
     @Bean
     public PasswordEncoder encoder() {
-        return new BCryptPasswordEncoder();
+        return new TimedPasswordEncoder(new BCryptPasswordEncoder(), this.quizMetrics);
     }
 
 
     @Override
     protected void configure(AuthenticationManagerBuilder auth)
                                                     throws Exception {
+        DaoAuthenticationProvider daoProvider = new DaoAuthenticationProvider();
+        daoProvider.setUserDetailsService(this.userDetailsService);
+        daoProvider.setPasswordEncoder(encoder());
         auth
-                .userDetailsService(this.userDetailsService)
-                .passwordEncoder(encoder());
+                .authenticationProvider(
+                        new CachingAuthenticationProvider(daoProvider, this.credentialCache));
     }
 
     @Override
@@ -148,7 +222,8 @@ class SecurityConfig extends WebSecurityConfigurerAdapter {
         String[] permittedPaths
                 = new String[]{"/api/register","/actuator/shutdown"};
         String[] authenticatedPaths
-                = new String[]{"/api/quizzes", "/api/quizzes/**"};
+                = new String[]{"/api/quizzes", "/api/quizzes/**", "/api/sessions", "/api/sessions/**",
+                                "/api/leaderboard"};
         http.httpBasic().and()
                 .authorizeRequests()
                     .antMatchers(authenticatedPaths)
@@ -175,8 +250,8 @@ class UserRepositoryUserDetailsService implements UserDetailsService {
     @Override
     public UserDetails loadUserByUsername(String username)
                                         throws UsernameNotFoundException {
-        User user = this.userRepository.findByUsername(username);
-        if (user != null) return user;
+        QuizUserPrincipal principal = this.userRepository.findPrincipalByUsername(username);
+        if (principal != null) return principal;
         else throw new UsernameNotFoundException(String.format(USER_NOT_FOUND, username));
     }
 }
@@ -213,16 +288,25 @@ class UserController {
                     this.encoder
                         .encode(
                                 newUser.getPassword()));
-        this.userRepository.save(newUser);
+        try {
+            this.userRepository.save(newUser);
+        } catch (DataIntegrityViolationException e) {
+            // registered concurrently, caught by uk_app_users_username
+            return new ResponseEntity<>("Your email has already been registered", HttpStatus.BAD_REQUEST);
+        }
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
 }
 
 @Repository
-interface UserRepository extends CrudRepository<User, Long> {
+interface UserRepository extends JpaRepository<User, Long> {
 
     User findByUsername(String username);
 
+    @Query("select new engine.QuizUserPrincipal(u.id, u.username, u.password) " +
+           "from User u where u.username = :username")
+    QuizUserPrincipal findPrincipalByUsername(@Param("username") String username);
+
 }
 
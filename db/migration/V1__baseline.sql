@@ -0,0 +1,49 @@
+-- Schema as of the switch from ddl-auto=update to versioned migrations.
+-- Existing databases are baselined below this version, so every statement must
+-- also hold on a schema that ddl-auto=update already built, fully or in part.
+-- LegacyQuizStorageMigration runs first and converts the pre-series quiz columns.
+
+create sequence if not exists hibernate_sequence start with 1;
+create sequence if not exists quiz_sequence start with 1 increment by 50;
+
+create table if not exists app_users (
+    user_id  bigint       not null primary key,
+    enabled  boolean      not null,
+    password varchar(255),
+    username varchar(255)
+);
+
+create table if not exists quiz (
+    quizid        bigint        not null primary key,
+    title         varchar(255)  not null,
+    task          varchar(255)  not null,
+    option_list   varchar(4000) not null,
+    answer_mask   integer       not null,
+    user_id       bigint,
+    version       bigint        default 0 not null,
+    last_modified timestamp
+);
+alter table quiz add column if not exists version bigint default 0 not null;
+alter table quiz add column if not exists last_modified timestamp;
+create index if not exists idx_quiz_title on quiz (title, quizid);
+create index if not exists idx_quiz_owner on quiz (user_id, quizid);
+
+create table if not exists solved_quiz (
+    solved_quiz_id bigint    auto_increment not null primary key,
+    solved_by      bigint,
+    quiz_id        bigint    not null,
+    completed_at   timestamp
+);
+create index if not exists idx_solved_quiz_user_completed_at on solved_quiz (solved_by, completed_at, solved_quiz_id);
+
+create table if not exists quiz_stats (
+    quiz_id        bigint    not null primary key,
+    attempts       bigint    not null,
+    successes      bigint    not null,
+    last_solved_at timestamp
+);
+
+create table if not exists user_stats (
+    user_id     bigint not null primary key,
+    completions bigint not null
+);
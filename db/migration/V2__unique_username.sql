@@ -0,0 +1,2 @@
+-- Usernames identify users at login; make the lookup a unique index probe.
+alter table app_users add constraint if not exists uk_app_users_username unique (username);
@@ -0,0 +1,2 @@
+-- First solvers of a quiz are read in completion order.
+create index if not exists idx_solved_quiz_quiz_completed_at on solved_quiz (quiz_id, completed_at, solved_quiz_id);
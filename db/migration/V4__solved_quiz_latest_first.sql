@@ -0,0 +1,3 @@
+-- Completions are listed latest first; H2 cannot read an ascending index backwards.
+drop index if exists idx_solved_quiz_user_completed_at;
+create index if not exists idx_solved_quiz_user_latest on solved_quiz (solved_by desc, completed_at desc, solved_quiz_id desc);
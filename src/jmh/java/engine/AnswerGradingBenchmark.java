@@ -0,0 +1,74 @@
+package engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialize-and-grade cost of a solve request body: the former boxed
+ * HashSet comparison against the bitmask path used by checkAnswer.
+ * Run with the gc profiler (the default in build.gradle) to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnswerGradingBenchmark {
+
+    private final byte[] requestBody = "{\"answer\":[2,0]}".getBytes(StandardCharsets.UTF_8);
+
+    private ObjectReader hashSetReader;
+    private ObjectReader bitmaskReader;
+    private HashSet<Integer> expectedSet;
+    private int expectedMask;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        hashSetReader = objectMapper.readerFor(HashSetAnswer.class);
+        bitmaskReader = objectMapper.readerFor(Answer.class);
+        expectedSet = new HashSet<>(Arrays.asList(0, 2));
+        expectedMask = AnswerMask.of(expectedSet);
+    }
+
+    @Benchmark
+    public boolean hashSet() throws IOException {
+        HashSetAnswer answer = hashSetReader.readValue(requestBody);
+        return expectedSet.equals(answer.getAnswer());
+    }
+
+    @Benchmark
+    public boolean bitmask() throws IOException {
+        Answer answer = bitmaskReader.readValue(requestBody);
+        return expectedMask == answer.getAnswer();
+    }
+
+    public static class HashSetAnswer {
+        private HashSet<Integer> answer;
+
+        public HashSet<Integer> getAnswer() {
+            return answer;
+        }
+
+        public void setAnswer(HashSet<Integer> answer) {
+            this.answer = answer != null ? answer : new HashSet<>();
+        }
+    }
+}
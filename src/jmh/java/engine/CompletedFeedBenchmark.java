@@ -0,0 +1,102 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page 1 against page 10,000 of GET /api/quizzes/completed for a user with
+ * 1,000,000 completions, 100 rows a page: the offset pages, which count
+ * and skip every row before the page, against the keyset pages of the
+ * cursor variant, which seek straight to it. Result reuse is off, or H2
+ * would hand back the previous result of a repeated query on an unchanged
+ * table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CompletedFeedBenchmark {
+
+    private static final int COMPLETIONS = 1_000_000;
+    private static final int PAGE_SIZE = 100;
+    private static final int DEEP_PAGE = COMPLETIONS / PAGE_SIZE - 1;
+    private static final long USER_ID = 1;
+    /** H2 flushes the identity sequence inside the statement, which slows down quadratically with its size. */
+    private static final int SEED_CHUNK = 250;
+
+    private ConfigurableApplicationContext context;
+    private SolvedQuizService solvedQuizService;
+    private String deepCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(WebQuizEngine.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:completed-feed;DB_CLOSE_DELAY=-1;OPTIMIZE_REUSE_RESULTS=FALSE",
+                     "--spring.jpa.hibernate.ddl-auto=create-drop",
+                     "--spring.jpa.show-sql=false",
+                     "--logging.level.root=WARN");
+        solvedQuizService = context.getBean(SolvedQuizService.class);
+
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        for (int first = 1; first <= COMPLETIONS; first += SEED_CHUNK) {
+            jdbcTemplate.update("insert into solved_quiz (solved_quiz_id, solved_by, quiz_id, completed_at) " +
+                    "select x, ?, x, dateadd('SECOND', -x, timestamp '2020-01-01 00:00:00') " +
+                    "from system_range(?, ?)", USER_ID, first, first + SEED_CHUNK - 1);
+        }
+        Page<SolvedQuiz> deepPage = solvedQuizService.getAllSolvedQuizzesWithPagination(DEEP_PAGE, PAGE_SIZE, USER_ID);
+        if (deepPage.getTotalElements() != COMPLETIONS || deepPage.getNumberOfElements() != PAGE_SIZE) {
+            throw new IllegalStateException(String.format("seeded %d completions instead of %d",
+                    deepPage.getTotalElements(), COMPLETIONS));
+        }
+        deepCursor = jdbcTemplate.queryForObject("select completed_at, solved_quiz_id from solved_quiz " +
+                        "where solved_by = ? order by completed_at desc, solved_quiz_id desc limit 1 offset ?",
+                (resultSet, row) -> CursorCodec.encode(
+                        resultSet.getTimestamp(1).toLocalDateTime().toString(), String.valueOf(resultSet.getLong(2))),
+                USER_ID, DEEP_PAGE * PAGE_SIZE - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object offsetFirstPage() {
+        return solvedQuizService.getAllSolvedQuizzesWithPagination(0, PAGE_SIZE, USER_ID);
+    }
+
+    @Benchmark
+    public Object offsetDeepPage() {
+        return solvedQuizService.getAllSolvedQuizzesWithPagination(DEEP_PAGE, PAGE_SIZE, USER_ID);
+    }
+
+    @Benchmark
+    public Object cursorFirstPage() {
+        return solvedQuizService.getSolvedQuizzesAfterCursor("", PAGE_SIZE, USER_ID);
+    }
+
+    @Benchmark
+    public Object cursorDeepPage() {
+        return solvedQuizService.getSolvedQuizzesAfterCursor(deepCursor, PAGE_SIZE, USER_ID);
+    }
+}
@@ -0,0 +1,63 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leaderboard operations over a user base where completions are
+ * geometrically distributed: most users solved a few quizzes, a few solved many.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class LeaderboardBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int users;
+
+    private Leaderboard leaderboard;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        leaderboard = new Leaderboard();
+        Random random = new Random(42);
+        for (long userId = 1; userId <= users; userId++) {
+            do {
+                leaderboard.solved(userId);
+            } while (random.nextDouble() < 0.8);
+        }
+    }
+
+    @Benchmark
+    public LeaderboardEntry rank() {
+        return leaderboard.entry(1 + ThreadLocalRandom.current().nextInt(users));
+    }
+
+    @Benchmark
+    public List<LeaderboardEntry> top10() {
+        return leaderboard.top(10);
+    }
+
+    @Benchmark
+    public void solved() {
+        leaderboard.solved(1 + ThreadLocalRandom.current().nextInt(users));
+    }
+}
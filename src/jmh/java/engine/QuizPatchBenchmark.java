@@ -0,0 +1,66 @@
+package engine;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.fge.jsonpatch.JsonPatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse-and-apply cost of a PATCH /api/quizzes/{id} body: the former
+ * fge JsonPatch path, which converts the quiz to a tree and back, against
+ * the field-level {@link QuizPatch} used by the endpoint now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuizPatchBenchmark {
+
+    private static final byte[] PATCH = (
+            "[{\"op\":\"replace\",\"path\":\"/title\",\"value\":\"The Java Mascot\"}," +
+            "{\"op\":\"replace\",\"path\":\"/options/3\",\"value\":\"Duke\"}]").getBytes(StandardCharsets.UTF_8);
+
+    private ObjectMapper objectMapper;
+    private ObjectReader jsonPatchReader;
+    private ObjectReader operationsReader;
+    private Quiz quiz;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        jsonPatchReader = objectMapper.readerFor(JsonPatch.class);
+        operationsReader = objectMapper.readerFor(new TypeReference<List<QuizPatchOperation>>() {});
+        quiz = QuizSerializationBenchmark.quiz(1);
+    }
+
+    @Benchmark
+    public Quiz jsonPatch() throws Exception {
+        JsonPatch patch = jsonPatchReader.readValue(PATCH);
+        JsonNode patched = patch.apply(objectMapper.convertValue(quiz, JsonNode.class));
+        return objectMapper.treeToValue(patched, Quiz.class);
+    }
+
+    @Benchmark
+    public Quiz quizPatch() throws Exception {
+        List<QuizPatchOperation> operations = operationsReader.readValue(PATCH);
+        QuizPatch.apply(operations, quiz);
+        return quiz;
+    }
+}
@@ -0,0 +1,139 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository round trips against an in-memory H2 database seeded with
+ * one user, 1,000 quizzes and 1,000 completions. The trial fails up front
+ * if a request path issues more SQL statements than it should.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuizRepositoryBenchmark {
+
+    private static final int QUIZZES = 1000;
+
+    private ConfigurableApplicationContext context;
+    private QuizRepository quizRepository;
+    private SolvedQuizService solvedQuizService;
+    private QuizService quizService;
+    private QuizAccessService quizAccessService;
+    private QuizCache quizCache;
+    private long userId;
+    private long quizId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(WebQuizEngine.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                     "--spring.jpa.hibernate.ddl-auto=create-drop",
+                     "--spring.jpa.show-sql=false",
+                     "--logging.level.root=WARN");
+        quizRepository = context.getBean(QuizRepository.class);
+        quizService = context.getBean(QuizService.class);
+        solvedQuizService = context.getBean(SolvedQuizService.class);
+        quizAccessService = context.getBean(QuizAccessService.class);
+        quizCache = context.getBean(QuizCache.class);
+
+        User user = new User();
+        user.setUsername("benchmark@example.com");
+        user.setPassword("password");
+        userId = context.getBean(UserRepository.class).save(user).getId();
+
+        SolvedQuizWriter solvedQuizWriter = context.getBean(SolvedQuizWriter.class);
+        for (int i = 1; i <= QUIZZES; i++) {
+            Quiz quiz = QuizSerializationBenchmark.quiz(0);
+            quiz.setOwnerId(userId);
+            quizId = quizRepository.save(quiz).getId();
+
+            SolvedQuiz solvedQuiz = new SolvedQuiz();
+            solvedQuiz.setUserId(userId);
+            solvedQuiz.setQuizId(quizId);
+            solvedQuiz.setCompletedAt(LocalDateTime.now().minusSeconds(i));
+            solvedQuizWriter.writeBatch(List.of(solvedQuiz));
+        }
+        checkStatementCounts();
+    }
+
+    /**
+     * Counted with the statement inspector behind the per-request SQL metric.
+     */
+    private void checkStatementCounts() {
+        quizCache.invalidate(quizId);
+        expectStatements("Access check on a cache miss", 1, () -> quizAccessService.getReadableQuiz(quizId));
+        expectStatements("Access check on a cache hit", 0, () -> quizAccessService.getReadableQuiz(quizId));
+        expectStatements("Loading a quiz", 1, () -> quizRepository.findById(quizId));
+        expectStatements("A page of owned quizzes", 1, () -> quizService.getOwnedQuizzes(userId, 0, 10, false));
+        expectStatements("A counted page of owned quizzes", 2, () -> quizService.getOwnedQuizzes(userId, 0, 10, true));
+    }
+
+    private static void expectStatements(String operation, int expected, Runnable task) {
+        SqlStatementCounter.reset();
+        task.run();
+        int executed = SqlStatementCounter.current();
+        if (executed != expected) {
+            throw new IllegalStateException(String.format(
+                    "%s issued %d SQL statements instead of %d", operation, executed, expected));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Quiz findById() {
+        return quizRepository.findById(quizId).orElseThrow();
+    }
+
+    @Benchmark
+    public Slice<Quiz> ownedFirstPage() {
+        return quizService.getOwnedQuizzes(userId, 0, 10, true);
+    }
+
+    @Benchmark
+    public Slice<Quiz> catalogueFirstPage() {
+        return quizService.getAllQuizzesWithPagination(0, 10, "id", true);
+    }
+
+    @Benchmark
+    public Slice<Quiz> catalogueDeepPage() {
+        return quizService.getAllQuizzesWithPagination(QUIZZES / 10 - 1, 10, "id", true);
+    }
+
+    @Benchmark
+    public Object completedFirstPage() {
+        return solvedQuizService.getAllSolvedQuizzesWithPagination(0, 10, userId);
+    }
+
+    @Benchmark
+    public Object completedFirstCursorPage() {
+        return solvedQuizService.getSolvedQuizzesAfterCursor("", 10, userId);
+    }
+}
@@ -0,0 +1,81 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of the search index over a synthetic catalogue whose
+ * vocabulary follows Zipf's law (word w<i> is about i times rarer than w1),
+ * so common words have long postings lists and rare words short ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class QuizSearchBenchmark {
+
+    private static final int VOCABULARY = 20_000;
+
+    @Param({"100000", "1000000"})
+    public int quizzes;
+
+    private QuizSearchIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new QuizSearchIndex();
+        Random random = new Random(42);
+        for (int id = 1; id <= quizzes; id++) {
+            Quiz quiz = new Quiz();
+            quiz.setId(id);
+            quiz.setTitle(words(random, 4));
+            quiz.setText(words(random, 12));
+            quiz.setOptions(new String[]{words(random, 2), words(random, 2), words(random, 2)});
+            index.index(quiz);
+        }
+    }
+
+    @Benchmark
+    public Object commonTerm() {
+        return index.search("w1", 0, 10);
+    }
+
+    @Benchmark
+    public Object twoCommonTerms() {
+        return index.search("w1 w2", 0, 10);
+    }
+
+    @Benchmark
+    public Object commonAndRareTerm() {
+        return index.search("w1 w50", 0, 10);
+    }
+
+    @Benchmark
+    public Object deepPage() {
+        return index.search("w3", 990, 10);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int rank = (int) Math.exp(random.nextDouble() * Math.log(VOCABULARY));
+            words.append('w').append(rank).append(' ');
+        }
+        return words.toString();
+    }
+}
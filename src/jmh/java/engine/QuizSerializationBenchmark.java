@@ -0,0 +1,75 @@
+package engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response serialization of GET /api/quizzes/{id} and of a ten-quiz catalogue page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuizSerializationBenchmark {
+
+    private ObjectWriter writer;
+    private Quiz quiz;
+    private QuizSnapshot snapshot;
+    private Page<Quiz> page;
+
+    @Setup
+    public void setUp() {
+        writer = new ObjectMapper().writer();
+        quiz = quiz(1);
+        snapshot = QuizSnapshot.of(quiz);
+        List<Quiz> content = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            content.add(quiz(i));
+        }
+        page = new PageImpl<>(content, PageRequest.of(0, 10, QuizSortField.ID.sort()), 1000);
+    }
+
+    @Benchmark
+    public byte[] quiz() throws Exception {
+        return writer.writeValueAsBytes(quiz);
+    }
+
+    @Benchmark
+    public byte[] quizSnapshot() throws Exception {
+        return writer.writeValueAsBytes(snapshot);
+    }
+
+    @Benchmark
+    public byte[] quizPage() throws Exception {
+        return writer.writeValueAsBytes(page);
+    }
+
+    static Quiz quiz(long id) {
+        Quiz quiz = new Quiz();
+        quiz.setId(id);
+        quiz.setTitle("The Java Logo #" + id);
+        quiz.setText("What is depicted on the Java logo?");
+        quiz.setOptions(new String[]{"Robot", "Tea leaf", "Cup of coffee", "Bug"});
+        quiz.setAnswer(1 << 2);
+        return quiz;
+    }
+}
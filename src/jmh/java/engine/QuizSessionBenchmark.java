@@ -0,0 +1,58 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sampling a session's quizzes for users who have solved none,
+ * half or almost all of the catalogue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuizSessionBenchmark {
+
+    @Param({"100000", "2000000"})
+    public int quizzes;
+
+    @Param({"0.0", "0.5", "0.999"})
+    public double solvedFraction;
+
+    private QuizIdIndex index;
+    private SolvedQuizzes solved;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new QuizIdIndex();
+        Random random = new Random(42);
+        List<Long> solvedIds = new ArrayList<>();
+        for (long id = 1; id <= quizzes; id++) {
+            index.add(id);
+            if (random.nextDouble() < solvedFraction) solvedIds.add(id);
+        }
+        solved = new SolvedQuizzes(solvedIds);
+    }
+
+    @Benchmark
+    public List<Long> sampleSession() {
+        return index.sample(10, solved);
+    }
+}
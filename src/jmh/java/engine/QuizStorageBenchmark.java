@@ -0,0 +1,184 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading 1,000,000 quizzes from an H2 file database in the old layout,
+ * options and answer as Java-serialized blobs, against the option_list /
+ * answer_mask columns: a full scan that decodes every row. The size of
+ * both database files is printed after seeding, as written and after
+ * SHUTDOWN COMPACT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class QuizStorageBenchmark {
+
+    private static final int QUIZZES = 1_000_000;
+    private static final int SEED_BATCH = 1_000;
+    private static final String[][] OPTIONS = {
+            {"Paris", "Lyon", "Marseille", "Nice"},
+            {"Yes", "No"},
+            {"O(1)", "O(log n)", "O(n)"},
+            {"A hash map", "A balanced tree", "A sorted array", "A linked list"}};
+
+    private final QuizOptionsConverter optionsConverter = new QuizOptionsConverter();
+    private Path directory;
+    private Connection legacy;
+    private Connection compact;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("quiz-storage");
+        seed("legacy", "options varbinary, answer varbinary", (statement, options, answer) -> {
+            statement.setBytes(4, serialize(options));
+            statement.setBytes(5, serialize(new HashSet<>(answer)));
+        });
+        seed("compact", "option_list varchar(" + Quiz.OPTION_LIST_LENGTH + "), answer_mask integer",
+                (statement, options, answer) -> {
+                    statement.setString(4, optionsConverter.convertToDatabaseColumn(options));
+                    statement.setInt(5, AnswerMask.of(answer));
+                });
+        long legacyWritten = Files.size(file("legacy"));
+        long compactWritten = Files.size(file("compact"));
+        shutdownCompact("legacy");
+        shutdownCompact("compact");
+        System.out.printf("%nOn disk as written: legacy %,d bytes, compact %,d bytes%n", legacyWritten, compactWritten);
+        System.out.printf("On disk compacted:  legacy %,d bytes, compact %,d bytes%n",
+                Files.size(file("legacy")), Files.size(file("compact")));
+        legacy = connect("legacy");
+        compact = connect("compact");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        legacy.close();
+        compact.close();
+        for (String name : new String[]{"legacy", "compact"}) Files.deleteIfExists(file(name));
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void loadLegacy(Blackhole blackhole) throws SQLException {
+        try (Statement statement = legacy.createStatement();
+             ResultSet resultSet = statement.executeQuery("select quizid, options, answer from quiz")) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(deserialize(resultSet.getBytes(2)));
+                blackhole.consume(deserialize(resultSet.getBytes(3)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void loadCompact(Blackhole blackhole) throws SQLException {
+        try (Statement statement = compact.createStatement();
+             ResultSet resultSet = statement.executeQuery("select quizid, option_list, answer_mask from quiz")) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+                blackhole.consume(optionsConverter.convertToEntityAttribute(resultSet.getString(2)));
+                blackhole.consume(resultSet.getInt(3));
+            }
+        }
+    }
+
+    private interface Columns {
+        void set(PreparedStatement statement, String[] options, List<Integer> answer) throws SQLException;
+    }
+
+    private void seed(String name, String columns, Columns values) throws SQLException {
+        try (Connection connection = connect(name)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("create table quiz (quizid bigint primary key, title varchar(255), " +
+                        "task varchar(255), " + columns + ", user_id bigint)");
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into quiz values (?, ?, ?, ?, ?, ?)")) {
+                for (long id = 1; id <= QUIZZES; id++) {
+                    String[] options = OPTIONS[(int) (id % OPTIONS.length)];
+                    statement.setLong(1, id);
+                    statement.setString(2, "Quiz " + id);
+                    statement.setString(3, "Which one is right?");
+                    values.set(statement, options, Arrays.asList((int) (id % options.length)));
+                    statement.setLong(6, id % 1000);
+                    statement.addBatch();
+                    if (id % SEED_BATCH == 0) {
+                        statement.executeBatch();
+                        connection.commit();
+                    }
+                }
+            }
+            connection.commit();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("shutdown");
+            }
+        }
+    }
+
+    private void shutdownCompact(String name) throws SQLException {
+        try (Connection connection = connect(name); Statement statement = connection.createStatement()) {
+            statement.execute("shutdown compact");
+        }
+    }
+
+    private Connection connect(String name) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:file:" + directory.resolve(name), "sa", "");
+    }
+
+    private Path file(String name) {
+        return directory.resolve(name + ".mv.db");
+    }
+
+    private static byte[] serialize(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
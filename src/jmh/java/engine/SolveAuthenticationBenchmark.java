@@ -0,0 +1,99 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One authenticated solve: the HTTP Basic check followed by grading, with
+ * the provider chain from SecurityConfig with and without the verified
+ * credential cache in front of BCrypt. The answer is wrong on purpose so
+ * that no completion rows pile up during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolveAuthenticationBenchmark {
+
+    private static final String USERNAME = "benchmark@example.com";
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private ConfigurableApplicationContext context;
+    private QuizSolveService quizSolveService;
+    private AuthenticationProvider uncached;
+    private AuthenticationProvider cached;
+    private long quizId;
+    private int wrongAnswer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(WebQuizEngine.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:solve-authentication;DB_CLOSE_DELAY=-1",
+                     "--spring.jpa.hibernate.ddl-auto=create-drop",
+                     "--spring.jpa.show-sql=false",
+                     "--logging.level.root=WARN");
+        quizSolveService = context.getBean(QuizSolveService.class);
+
+        PasswordEncoder encoder = context.getBean(PasswordEncoder.class);
+        User user = new User();
+        user.setUsername(USERNAME);
+        user.setPassword(encoder.encode(PASSWORD));
+        long userId = context.getBean(UserRepository.class).save(user).getId();
+
+        Quiz quiz = QuizSerializationBenchmark.quiz(0);
+        quiz.setOwnerId(userId);
+        quizId = context.getBean(QuizRepository.class).save(quiz).getId();
+        wrongAnswer = ~quiz.getAnswer();
+
+        DaoAuthenticationProvider daoProvider = new DaoAuthenticationProvider();
+        daoProvider.setUserDetailsService(context.getBean(UserRepositoryUserDetailsService.class));
+        daoProvider.setPasswordEncoder(encoder);
+        uncached = daoProvider;
+        cached = new CachingAuthenticationProvider(daoProvider, context.getBean(VerifiedCredentialCache.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public QuizResult solveWithoutCache() {
+        return solve(uncached);
+    }
+
+    @Benchmark
+    public QuizResult solveWithCache() {
+        return solve(cached);
+    }
+
+    private QuizResult solve(AuthenticationProvider provider) {
+        Authentication authentication = provider.authenticate(
+                new UsernamePasswordAuthenticationToken(USERNAME, PASSWORD));
+        long userId = ((QuizUserPrincipal) authentication.getPrincipal()).getId();
+        return quizSolveService.solve(quizId, wrongAnswer, userId);
+    }
+}
@@ -0,0 +1,97 @@
+package engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per stored completion: one repository save per record, as checkAnswer
+ * used to do, against the JDBC batches of {@link SolvedQuizWriter}. Each
+ * invocation stores one writer batch worth of records into an in-memory
+ * H2 database, which is emptied between iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolvedQuizWriterBenchmark {
+
+    private static final int BATCH_SIZE = 200;
+
+    private ConfigurableApplicationContext context;
+    private SolvedQuizRepository solvedQuizRepository;
+    private SolvedQuizWriter solvedQuizWriter;
+    private JdbcTemplate jdbcTemplate;
+    private long nextQuizId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(WebQuizEngine.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:solved-quiz-writer;DB_CLOSE_DELAY=-1",
+                     "--spring.jpa.hibernate.ddl-auto=create-drop",
+                     "--spring.jpa.show-sql=false",
+                     "--logging.level.root=WARN");
+        solvedQuizRepository = context.getBean(SolvedQuizRepository.class);
+        solvedQuizWriter = context.getBean(SolvedQuizWriter.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyTable() {
+        jdbcTemplate.execute("truncate table solved_quiz");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void saveEach() {
+        for (SolvedQuiz solvedQuiz : completions()) {
+            solvedQuizRepository.save(solvedQuiz);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void writeBatch() {
+        solvedQuizWriter.writeBatch(completions());
+    }
+
+    private List<SolvedQuiz> completions() {
+        LocalDateTime now = LocalDateTime.now();
+        List<SolvedQuiz> completions = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            SolvedQuiz solvedQuiz = new SolvedQuiz();
+            solvedQuiz.setUserId(1);
+            solvedQuiz.setQuizId(++nextQuizId);
+            solvedQuiz.setCompletedAt(now);
+            completions.add(solvedQuiz);
+        }
+        return completions;
+    }
+}
@@ -0,0 +1,226 @@
+package engine;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import javax.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The SQL statements Hibernate prepares for each endpoint, counted with
+ * Hibernate statistics so that streamed responses, which finish on another
+ * thread, are counted as well. Statements sent through JdbcTemplate (the
+ * completion writer, statistics and first solvers) are not included.
+ * Every test starts from an empty database and empty caches, with the
+ * credentials of both users already cached.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statement-count;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.show-sql=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=WARN",
+        "engine.rate-limit.enabled=false"})
+@AutoConfigureMockMvc
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class EndpointStatementCountTest {
+
+    private static final String OWNER = "owner@example.com";
+    private static final String OTHER = "other@example.com";
+    private static final String PASSWORD = "password";
+    private static final String QUIZ =
+            "{\"title\":\"Capital\",\"text\":\"Capital of France?\",\"options\":[\"Paris\",\"Lyon\"],\"answer\":[0]}";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        for (String user : new String[]{OWNER, OTHER}) {
+            mockMvc.perform(post("/api/register").contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"email\":\"" + user + "\",\"password\":\"" + PASSWORD + "\"}"));
+            mockMvc.perform(get("/api/leaderboard").header(HttpHeaders.AUTHORIZATION, basic(user)))
+                    .andExpect(status().isOk());
+        }
+    }
+
+    @Test
+    void register() throws Exception {
+        assertStatements("POST /api/register", 3, post("/api/register").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"email\":\"new@example.com\",\"password\":\"" + PASSWORD + "\"}"));
+    }
+
+    /**
+     * The first quiz fetches a block of 50 ids from quiz_sequence; the ones
+     * after it are a single insert each.
+     */
+    @Test
+    void addQuiz() throws Exception {
+        createQuiz();
+        assertStatements("POST /api/quizzes", 1,
+                as(OWNER, post("/api/quizzes").contentType(MediaType.APPLICATION_JSON).content(QUIZ)));
+    }
+
+    @Test
+    void importQuizzes() throws Exception {
+        createQuiz();
+        assertStatements("POST /api/quizzes/import", 1, as(OWNER, post("/api/quizzes/import")
+                .contentType(MediaType.APPLICATION_JSON).content("[" + QUIZ + "," + QUIZ + "," + QUIZ + "]")));
+    }
+
+    @Test
+    void readQuiz() throws Exception {
+        long id = createQuiz();
+        assertStatements("GET /api/quizzes/{id}, uncached", 1, as(OWNER, get("/api/quizzes/" + id)));
+        assertStatements("GET /api/quizzes/{id}, cached", 0, as(OWNER, get("/api/quizzes/" + id)));
+        assertStatements("GET /api/quizzes/{id}/stats", 0, as(OWNER, get("/api/quizzes/" + id + "/stats")));
+        assertStatements("GET /api/quizzes/{id}/leaderboard", 0, as(OWNER, get("/api/quizzes/" + id + "/leaderboard")));
+        assertStatements("GET /api/quizzes/stats/top", 0, as(OWNER, get("/api/quizzes/stats/top")));
+        assertStatements("GET /api/leaderboard", 0, as(OWNER, get("/api/leaderboard")));
+    }
+
+    /**
+     * Pages of one, so that the first page is full and the total has to be counted.
+     */
+    @Test
+    void listQuizzes() throws Exception {
+        createQuiz();
+        createQuiz();
+        assertStatements("GET /api/quizzes", 2, as(OWNER, get("/api/quizzes").param("pageSize", "1")));
+        assertStatements("GET /api/quizzes?count=false", 1,
+                as(OWNER, get("/api/quizzes").param("pageSize", "1").param("count", "false")));
+        assertStatements("GET /api/quizzes/mine", 2, as(OWNER, get("/api/quizzes/mine").param("pageSize", "1")));
+        assertStatements("GET /api/quizzes/mine?count=false", 1,
+                as(OWNER, get("/api/quizzes/mine").param("pageSize", "1").param("count", "false")));
+        assertStatements("GET /api/quizzes?cursor", 1,
+                as(OWNER, get("/api/quizzes").param("cursor", "").param("pageSize", "1")));
+        assertStatements("GET /api/quizzes?cursor&sortByField=title", 1,
+                as(OWNER, get("/api/quizzes").param("cursor", "").param("pageSize", "1").param("sortByField", "title")));
+    }
+
+    @Test
+    void searchQuizzes() throws Exception {
+        createQuiz();
+        createQuiz();
+        assertStatements("GET /api/quizzes/search, uncached", 1,
+                as(OWNER, get("/api/quizzes/search").param("q", "capital")));
+        assertStatements("GET /api/quizzes/search, cached", 0,
+                as(OWNER, get("/api/quizzes/search").param("q", "capital")));
+    }
+
+    @Test
+    void updateQuiz() throws Exception {
+        long id = createQuiz();
+        assertStatements("PUT /api/quizzes/{id}", 2,
+                as(OWNER, put("/api/quizzes/" + id).contentType(MediaType.APPLICATION_JSON).content(QUIZ)));
+        assertStatements("PATCH /api/quizzes/{id}", 2, as(OWNER, patch("/api/quizzes/" + id)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"op\":\"replace\",\"path\":\"/title\",\"value\":\"Capital city\"}]")));
+        assertStatements("PUT /api/quizzes/{id} by another user", 2,
+                as(OTHER, put("/api/quizzes/" + id).contentType(MediaType.APPLICATION_JSON).content(QUIZ)), 403);
+        assertStatements("DELETE /api/quizzes/{id}", 1, as(OWNER, delete("/api/quizzes/" + id)), 204);
+    }
+
+    @Test
+    void solveQuizzes() throws Exception {
+        long id = createQuiz();
+        assertStatements("POST /api/quizzes/{id}/solve", 1, as(OTHER, post("/api/quizzes/" + id + "/solve")
+                .contentType(MediaType.APPLICATION_JSON).content("{\"answer\":[0]}")));
+        assertStatements("POST /api/quizzes/solve, cached", 0, as(OTHER, post("/api/quizzes/solve")
+                .contentType(MediaType.APPLICATION_JSON).content("[{\"quizId\":" + id + ",\"answer\":[1]}]")));
+    }
+
+    @Test
+    void completedQuizzes() throws Exception {
+        long first = createQuiz();
+        long second = createQuiz();
+        assertStatements("POST /api/quizzes/solve, uncached", 1, as(OTHER, post("/api/quizzes/solve")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"quizId\":" + first + ",\"answer\":[0]},{\"quizId\":" + second + ",\"answer\":[0]}]")));
+        assertStatements("GET /api/quizzes/completed", 2,
+                as(OTHER, get("/api/quizzes/completed").param("pageSize", "1")));
+        assertStatements("GET /api/quizzes/completed?cursor", 1,
+                as(OTHER, get("/api/quizzes/completed").param("cursor", "").param("pageSize", "1")));
+        assertStatements("GET /api/quizzes/completed/stats", 0, as(OTHER, get("/api/quizzes/completed/stats")));
+        assertStatements("GET /api/quizzes/completed/export", 1, as(OTHER, get("/api/quizzes/completed/export")));
+    }
+
+    @Test
+    void sessions() throws Exception {
+        long id = createQuiz();
+        MvcResult created = assertStatements("POST /api/sessions", 2,
+                as(OTHER, post("/api/sessions").param("size", "1")));
+        String sessionId = created.getResponse().getContentAsString().replaceAll(".*\"id\":\"([^\"]+)\".*", "$1");
+        assertStatements("POST /api/sessions/{id}/answers", 0, as(OTHER, post("/api/sessions/" + sessionId + "/answers")
+                .contentType(MediaType.APPLICATION_JSON).content("[{\"quizId\":" + id + ",\"answer\":[0]}]")));
+    }
+
+    @Test
+    void solveEvents() throws Exception {
+        long id = createQuiz();
+        assertStatements("GET /api/quizzes/events", 0, as(OWNER, get("/api/quizzes/events")));
+        assertStatements("GET /api/quizzes/events?quizId", 1,
+                as(OWNER, get("/api/quizzes/events").param("quizId", String.valueOf(id))));
+        assertStatements("GET /api/quizzes/events?quizId by another user", 0,
+                as(OTHER, get("/api/quizzes/events").param("quizId", String.valueOf(id))), 403);
+    }
+
+    private long createQuiz() throws Exception {
+        MvcResult result = mockMvc.perform(as(OWNER, post("/api/quizzes")
+                .contentType(MediaType.APPLICATION_JSON).content(QUIZ)))
+                .andExpect(status().isOk()).andReturn();
+        return Long.parseLong(result.getResponse().getContentAsString().replaceAll(".*\"id\":(\\d+).*", "$1"));
+    }
+
+    private MvcResult assertStatements(String endpoint, long expected, MockHttpServletRequestBuilder request)
+            throws Exception {
+        return assertStatements(endpoint, expected, request, 200);
+    }
+
+    private MvcResult assertStatements(String endpoint, long expected, MockHttpServletRequestBuilder request, int status)
+            throws Exception {
+        statistics.clear();
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted() && !endpoint.contains("/events")) {
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        assertEquals(status, result.getResponse().getStatus(), endpoint);
+        assertEquals(expected, statistics.getPrepareStatementCount(), endpoint + " SQL statements");
+        return result;
+    }
+
+    private static MockHttpServletRequestBuilder as(String user, MockHttpServletRequestBuilder request) {
+        return request.header(HttpHeaders.AUTHORIZATION, basic(user));
+    }
+
+    private static String basic(String user) {
+        return "Basic " + Base64.getEncoder().encodeToString((user + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+    }
+}